@@ -0,0 +1,24 @@
+package game;
+
+/**
+ * Fixed boards taken from bot games, packed as returned by {@link TileGrid#getBoard()}.
+ */
+public enum BenchmarkBoards {
+    // around move 400, biggest tile 256 or 512
+    MID_GAME(0x0002103311462389L, 0x0005001600380229L, 0x0215000600480039L, 0x0000001302341689L),
+    // three or less empty tiles, biggest tile 1024 or 2048
+    LATE_GAME(0x1234356746A5257BL, 0x1231256716A9347BL, 0x14322567378A4AB2L, 0x234114592675346BL);
+
+    private final long[] boards;
+
+    BenchmarkBoards(long... boards) {
+        this.boards = boards;
+    }
+
+    public TileGrid[] grids() {
+        TileGrid[] grids = new TileGrid[boards.length];
+        for (int i = 0; i < boards.length; i++)
+            grids[i] = new TileGrid(4, 4, boards[i]);
+        return grids;
+    }
+}
@@ -0,0 +1,31 @@
+package game;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Runs the benchmarks and writes the results to bench/results/&lt;date&gt;.json to compare them between runs.
+ * Takes the usual JMH arguments, e.g. "GameSolverBenchmark -p depth=1,2" to run only a part of them.
+ */
+public class BenchmarkRunner {
+    private static final String RESULTS_PATH = "bench/results/";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new File(RESULTS_PATH).mkdirs();
+        String resultFile = RESULTS_PATH
+                + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss")) + ".json";
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile)
+                .build()).run();
+    }
+}
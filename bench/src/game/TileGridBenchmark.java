@@ -0,0 +1,71 @@
+package game;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TileGridBenchmark {
+
+    @Param({"MID_GAME", "LATE_GAME"})
+    private BenchmarkBoards boards;
+
+    private TileGrid[] grids;
+    private int[] rows;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        grids = boards.grids();
+        rows = new int[grids.length * 4];
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = (int) (grids[i / 4].getBoard() >>> (16 * (i % 4))) & 0xFFFF;
+    }
+
+    private TileGrid nextGrid() {
+        next = (next + 1) % grids.length;
+        return grids[next];
+    }
+
+    @State(Scope.Thread)
+    public static class MoveDirection {
+        @Param({"UP", "RIGHT", "DOWN", "LEFT"})
+        private Direction direction;
+    }
+
+    @Benchmark
+    public boolean move(MoveDirection moveDirection) {
+        TileGrid grid = nextGrid();
+        grid.pushState();
+        boolean moved = grid.move(moveDirection.direction);
+        grid.popState();
+        return moved;
+    }
+
+    @Benchmark
+    public void leftShift(Blackhole blackhole) {
+        for (int row : rows)
+            blackhole.consume(TileGrid.leftShift(row, 4));
+    }
+
+    @Benchmark
+    public Object everyPossiblePosition() {
+        return nextGrid().everyPossiblePosition();
+    }
+
+    @Benchmark
+    public double finalScore() {
+        return nextGrid().finalScore();
+    }
+
+    @Benchmark
+    public boolean gameIsOver() {
+        return nextGrid().gameIsOver();
+    }
+}
@@ -0,0 +1,53 @@
+package game.bot;
+
+import game.BenchmarkBoards;
+import game.Direction;
+import game.Heuristic;
+import game.TileGrid;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a whole move, every invocation starts with an empty transposition table.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GameSolverBenchmark {
+
+    @Param({"MID_GAME", "LATE_GAME"})
+    private BenchmarkBoards boards;
+
+    @Param({"1", "2", "3", "4", "5", "6"})
+    private int depth;
+
+    @Param({"true", "false"})
+    private boolean pruning;
+
+    private TileGrid[] grids;
+    private int next;
+    private TranspositionTable transpositionTable;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        grids = boards.grids();
+        GameSolver.setPruning(pruning);
+    }
+
+    @Setup(Level.Invocation)
+    public void newTranspositionTable() {
+        transpositionTable = new TranspositionTable(4, 4, 20);
+    }
+
+    @Benchmark
+    public Direction nexMove() throws ExecutionException, InterruptedException {
+        next = (next + 1) % grids.length;
+        return new GameSolver(grids[next], depth, GameSolver.NO_TIME_LIMIT, Heuristic.DEFAULT,
+                transpositionTable).nexMove();
+    }
+}
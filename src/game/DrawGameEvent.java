@@ -0,0 +1,20 @@
+package game;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of redrawing the tiles.
+ */
+@Name("game.DrawGame")
+@Label("Draw Game")
+@Category({"2048", "Game Loop"})
+@StackTrace(false)
+class DrawGameEvent extends Event {
+
+    @Label("Tiles")
+    int tiles;
+}
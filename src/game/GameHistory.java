@@ -0,0 +1,338 @@
+package game;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * History of a game, kept in memory and written to a binary file in the background: a header followed by one fixed
+ * size record per position, so a history can be continued or cut back without rewriting the file.
+ * <p>
+ * The header holds {@link #MAGIC}, {@link #VERSION}, the grid size and the record size. A record holds the packed
+ * board as returned by {@link TileGrid#getBoardWords()}, the move that led to it and the tile added after the move,
+ * 12 bytes for grids of up to 16 tiles. The first record is the start of the game, without a move or an added tile.
+ * Numbers are stored big endian.
+ * <p>
+ * Appends and cuts only change the memory, the writer thread batches them into one write every
+ * {@value #FLUSH_DELAY_MS} ms at most. {@link #close()} waits until everything is written.
+ */
+public class GameHistory implements Closeable {
+
+    public static final int NO_MOVE = -1;
+    public static final int NO_SPAWN = -1;
+    static final int MAGIC = 0x32303438; // "2048"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 12;
+    private static final int MOVE_BYTES = 4;
+    private static final long FLUSH_DELAY_MS = 200;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int READ_CHUNK_RECORDS = 4096;
+
+    private final FileChannel channel;
+    private final int nRows;
+    private final int nCols;
+    private final int boardWords;
+    private final int recordSize;
+    private final ScheduledThreadPoolExecutor writer;
+    private long[] boards;
+    private byte[] moves;
+    private byte[] spawnIndices;
+    private byte[] spawnExponents;
+    private int size;
+    private int persisted; // records at the start of the file that match the memory
+    private boolean truncatePending;
+    private boolean flushScheduled;
+    private IOException writeError;
+
+    /**
+     * Converts an old csv history, e.g. {@code src/data/currentGameHistory.csv src/data/currentGameHistory.bin}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: GameHistory <csv history> <binary history>");
+            System.exit(1);
+        }
+        GameIO.importHistory(new File(args[0]), new File(args[1]));
+    }
+
+    private GameHistory(FileChannel channel, int nRows, int nCols, int capacity) {
+        this.channel = channel;
+        this.nRows = nRows;
+        this.nCols = nCols;
+        this.boardWords = TileGrid.boardWords(nRows, nCols);
+        this.recordSize = boardWords * Long.BYTES + MOVE_BYTES;
+        this.boards = new long[capacity * boardWords];
+        this.moves = new byte[capacity];
+        this.spawnIndices = new byte[capacity];
+        this.spawnExponents = new byte[capacity];
+        this.writer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "game-history-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // close() flushes right away, a flush still waiting for its delay isn't needed anymore
+        writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Starts a new history, an existing file is overwritten.
+     */
+    public static GameHistory create(File file, int nRows, int nCols) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort(VERSION).put((byte) nRows).put((byte) nCols)
+                .putInt(recordSize(nRows, nCols)).flip();
+        try {
+            writeFully(channel, header, 0);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new GameHistory(channel, nRows, nCols, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Reads an existing history into memory to replay it or to continue it.
+     */
+    public static GameHistory open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getShort() != VERSION)
+                throw new IOException("Not a game history: " + file);
+            int nRows = header.get();
+            int nCols = header.get();
+            int recordSize = recordSize(nRows, nCols);
+            if (header.getInt() != recordSize)
+                throw new IOException("Unexpected record size in " + file);
+            // a record cut off by a crash is dropped
+            long records = (channel.size() - HEADER_SIZE) / recordSize;
+            if (records > Integer.MAX_VALUE / TileGrid.boardWords(nRows, nCols))
+                throw new IOException("Too many records to keep in memory in " + file + ": " + records);
+            GameHistory history = new GameHistory(channel, nRows, nCols, (int) Math.max(records, INITIAL_CAPACITY));
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(records, READ_CHUNK_RECORDS) * recordSize);
+            long[] words = new long[history.boardWords];
+            for (long read = 0; read < records; ) {
+                int chunk = (int) Math.min(records - read, READ_CHUNK_RECORDS);
+                buffer.clear();
+                buffer.limit(chunk * recordSize);
+                readFully(channel, buffer, HEADER_SIZE + read * recordSize);
+                buffer.flip();
+                for (int i = 0; i < chunk; i++) {
+                    for (int word = 0; word < words.length; word++)
+                        words[word] = buffer.getLong();
+                    history.add(words, buffer.get(), buffer.get(), buffer.get());
+                    buffer.get(); // reserved
+                }
+                read += chunk;
+            }
+            history.persisted = (int) records;
+            return history;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds the start of the game.
+     */
+    public void appendStart(TileGrid grid) throws IOException {
+        append(grid, NO_MOVE, NO_SPAWN);
+    }
+
+    /**
+     * Adds the position after a move.
+     * @param spawnIndex index ({@code row * nCols + col}) of the tile added after the move, as returned by
+     *                   {@link TileGrid#addTileRandomly()}
+     */
+    public void append(TileGrid grid, Direction move, int spawnIndex) throws IOException {
+        append(grid, move.ordinal(), spawnIndex);
+    }
+
+    /**
+     * @param move direction ordinal or {@link #NO_MOVE}
+     * @throws IOException if an earlier write in the background failed
+     */
+    synchronized void append(TileGrid grid, int move, int spawnIndex) throws IOException {
+        checkWriteError();
+        if (grid.getnRows() != nRows || grid.getnCols() != nCols)
+            throw new IllegalArgumentException("Expected a " + nRows + "x" + nCols + " grid");
+        int spawnExponent = spawnIndex == NO_SPAWN ? 0
+                : Integer.numberOfTrailingZeros(grid.getTile(spawnIndex / nCols, spawnIndex % nCols));
+        add(grid.getBoardWords(), (byte) move, (byte) spawnIndex, (byte) spawnExponent);
+        scheduleFlush();
+    }
+
+    private void add(long[] words, byte move, byte spawnIndex, byte spawnExponent) {
+        if (size == moves.length) {
+            boards = Arrays.copyOf(boards, boards.length * 2);
+            moves = Arrays.copyOf(moves, size * 2);
+            spawnIndices = Arrays.copyOf(spawnIndices, size * 2);
+            spawnExponents = Arrays.copyOf(spawnExponents, size * 2);
+        }
+        System.arraycopy(words, 0, boards, size * boardWords, boardWords);
+        moves[size] = move;
+        spawnIndices[size] = spawnIndex;
+        spawnExponents[size] = spawnExponent;
+        size++;
+    }
+
+    /**
+     * @return number of moves after the start, -1 if not even the start was added
+     */
+    public synchronized int getMoveCount() {
+        return size - 1;
+    }
+
+    /**
+     * @param move 0 for the start of the game
+     */
+    public synchronized TileGrid getGrid(int move) {
+        checkMove(move);
+        return new TileGrid(nRows, nCols, Arrays.copyOfRange(boards, move * boardWords, (move + 1) * boardWords));
+    }
+
+    /**
+     * @return the direction moved to reach the position, null for the start of the game
+     */
+    public synchronized Direction getMove(int move) {
+        checkMove(move);
+        return moves[move] == NO_MOVE ? null : Direction.values()[moves[move]];
+    }
+
+    /**
+     * @return cell index ({@code row * nCols + col}) of the tile added after the move, {@link #NO_SPAWN} if none was
+     */
+    public synchronized int getSpawnIndex(int move) {
+        checkMove(move);
+        return spawnIndices[move];
+    }
+
+    /**
+     * @return value of the tile added after the move, 0 if none was
+     */
+    public synchronized int getSpawnValue(int move) {
+        checkMove(move);
+        return spawnExponents[move] == 0 ? 0 : 1 << spawnExponents[move];
+    }
+
+    /**
+     * Drops every position after the given move, the file is cut back to the same length.
+     */
+    public synchronized void truncate(int move) throws IOException {
+        checkWriteError();
+        checkMove(move);
+        size = move + 1;
+        if (persisted > size) {
+            persisted = size;
+            truncatePending = true;
+        }
+        scheduleFlush();
+    }
+
+    public int getnRows() {
+        return nRows;
+    }
+
+    public int getnCols() {
+        return nCols;
+    }
+
+    /**
+     * Writes what's left and closes the file, closing it again does nothing.
+     */
+    @Override
+    public void close() throws IOException {
+        if (writer.isShutdown())
+            return;
+        writer.execute(this::flush);
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.close();
+        }
+        synchronized (this) {
+            checkWriteError();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled && !writer.isShutdown()) {
+            flushScheduled = true;
+            writer.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // runs on the writer thread only, so the file is changed in the same order as the memory
+    private void flush() {
+        int from;
+        boolean truncate;
+        ByteBuffer buffer;
+        synchronized (this) {
+            flushScheduled = false;
+            from = persisted;
+            truncate = truncatePending;
+            buffer = ByteBuffer.allocate((size - from) * recordSize);
+            for (int i = from; i < size; i++) {
+                for (int word = 0; word < boardWords; word++)
+                    buffer.putLong(boards[i * boardWords + word]);
+                buffer.put(moves[i]).put(spawnIndices[i]).put(spawnExponents[i]).put((byte) 0);
+            }
+            buffer.flip();
+            persisted = size;
+            truncatePending = false;
+        }
+        try {
+            if (truncate)
+                channel.truncate(position(from));
+            writeFully(channel, buffer, position(from));
+        } catch (IOException e) {
+            synchronized (this) {
+                writeError = e;
+            }
+        }
+    }
+
+    private void checkWriteError() throws IOException {
+        if (writeError != null)
+            throw new IOException("Writing the game history failed", writeError);
+    }
+
+    private void checkMove(int move) {
+        if (move < 0 || move >= size)
+            throw new IllegalArgumentException("No move " + move + " in a history of " + getMoveCount() + " moves");
+    }
+
+    private long position(int record) {
+        return HEADER_SIZE + (long) record * recordSize;
+    }
+
+    private static int recordSize(int nRows, int nCols) {
+        return TileGrid.boardWords(nRows, nCols) * Long.BYTES + MOVE_BYTES;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of the game history");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+    }
+}
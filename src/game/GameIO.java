@@ -5,11 +5,12 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.stream.Collectors;
 
 public class GameIO {
     public static void saveGrid(TileGrid tileGrid, File file, Boolean append) throws IOException {
+        SaveGridEvent event = new SaveGridEvent();
+        event.begin();
         String fileEnding = file.toString().endsWith(".csv") ? "" : ".csv";
         try (PrintWriter writer = new PrintWriter(new FileWriter(file + fileEnding, append))) {
             String line = tileGrid.getnRows() + "," + tileGrid.getnCols();
@@ -19,6 +20,12 @@ public class GameIO {
                 writer.println(line);
             }
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = file + fileEnding;
+            event.append = append;
+            event.commit();
+        }
     }
 
     public static TileGrid loadGrid(File file) throws IOException{
@@ -44,25 +51,6 @@ public class GameIO {
                 .map(Integer::parseInt).collect(Collectors.toList());
     }
 
-    public static TileGrid loadGridAtPos(File file, int move) throws IOException {
-        try(BufferedReader reader = Files.newBufferedReader(file.toPath())) {
-            reader.mark(3);
-            String[] gridsize =  reader.readLine().split(",");
-            reader.reset();
-            int step = Integer.parseInt(gridsize[0]) + 1;
-            List<String> lines = reader.lines().skip((long) move * step).collect(Collectors.toList());
-            int nRows = Integer.parseInt(gridsize[0]);
-            int nCols = Integer.parseInt(gridsize[1]);
-            ArrayList<Integer>[] tiles = new ArrayList[nRows];
-            int rowIndex = 0;
-            for(int i = 1; i < nRows+1; i++){
-                tiles[rowIndex] = getTilegridRow(lines.get(i));
-                rowIndex++;
-            }
-            return new TileGrid(nRows, nCols, tiles);
-        }
-    }
-
     public static void saveScore(String name, int score, int time, int timeScore, File file) throws IOException {
         try (PrintWriter writer = new PrintWriter(new FileWriter(file, true))){
             writer.println(String.format("%s,%d,%d,%d", name, score, time, timeScore));
@@ -85,14 +73,17 @@ public class GameIO {
         return scores;
     }
 
-    public static void removeLastLines(File file, int numberOfLines) throws IOException {
+    public static void saveWeights(Heuristic heuristic, File file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file, false))){
+            writer.println(Arrays.stream(heuristic.getWeights()).mapToObj(Double::toString)
+                    .collect(Collectors.joining(",")));
+        }
+    }
+
+    public static Heuristic loadWeights(File file) throws IOException {
         try(BufferedReader reader = Files.newBufferedReader(file.toPath())) {
-            List<String> lines = reader.lines().collect(Collectors.toList());
-             try (PrintWriter writer = new PrintWriter(new FileWriter(file, false))){
-                 for(int i = 0; i < lines.size()-numberOfLines; i++){
-                    writer.println(lines.get(i));
-                }
-            }
+            return new Heuristic(Arrays.stream(reader.readLine().split(","))
+                    .mapToDouble(Double::parseDouble).toArray());
         }
     }
 
@@ -102,23 +93,83 @@ public class GameIO {
         }
     }
 
-    public static int getMoveCount(File file) throws IOException{
-        int moveCount = -1;
-        try(BufferedReader reader = Files.newBufferedReader(file.toPath())) {
-            String line = reader.readLine();
-            if (line != null) {
-                int step = Integer.parseInt(line.split(",")[0]);
-                int lineCount = 0;
-                while (line!=null){
-                    line = reader.readLine();
-                    lineCount++;
-                    if (lineCount %(step+1) == 0){
-                        moveCount++;
-                    }
+    /**
+     * Converts a history written with {@link #saveGrid} one grid after the other into a {@link GameHistory}. The
+     * move and the added tile between two grids are recovered where a single move and tile explain the change.
+     */
+    public static void importHistory(File csv, File history) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(csv.toPath());
+             GameHistory gameHistory = openImportedHistory(reader, history)) {
+            if (gameHistory == null)
+                return;
+            TileGrid previous = null;
+            int nRows = gameHistory.getnRows();
+            int nCols = gameHistory.getnCols();
+            for (TileGrid grid = readGrid(reader, nRows, nCols); grid != null; grid = readGrid(reader, nRows, nCols)) {
+                if (previous == null) {
+                    gameHistory.appendStart(grid);
+                } else {
+                    appendImportedMove(gameHistory, previous, grid);
                 }
+                previous = grid;
+                reader.readLine(); // size line of the next grid
+            }
+        }
+    }
+
+    private static GameHistory openImportedHistory(BufferedReader reader, File history) throws IOException {
+        String line = reader.readLine();
+        if (line == null)
+            return null;
+        String[] data = line.split(",");
+        return GameHistory.create(history, Integer.parseInt(data[0]), Integer.parseInt(data[1]));
+    }
+
+    private static TileGrid readGrid(BufferedReader reader, int nRows, int nCols) throws IOException {
+        ArrayList<Integer>[] tiles = new ArrayList[nRows];
+        for (int row = 0; row < nRows; row++) {
+            String line = reader.readLine();
+            if (line == null)
+                return null;
+            tiles[row] = getTilegridRow(line);
+        }
+        return new TileGrid(nRows, nCols, tiles);
+    }
+
+    private static void appendImportedMove(GameHistory gameHistory, TileGrid previous, TileGrid grid)
+            throws IOException {
+        if (grid.sameTiles(previous))
+            return; // the old history repeated the grid on moves that didn't move anything
+        for (Direction direction : Direction.values()) {
+            TileGrid moved = previous.copy();
+            if (!moved.move(direction))
+                continue;
+            int spawnIndex = findAddedTile(moved, grid);
+            if (spawnIndex != GameHistory.NO_SPAWN) {
+                gameHistory.append(grid, direction, spawnIndex);
+                return;
+            }
+        }
+        gameHistory.append(grid, GameHistory.NO_MOVE, GameHistory.NO_SPAWN);
+    }
+
+    /**
+     * @return index of the only cell that is empty in {@code moved} and holds a 2 or a 4 in {@code grid},
+     * {@link GameHistory#NO_SPAWN} if the grids differ in any other way
+     */
+    private static int findAddedTile(TileGrid moved, TileGrid grid) {
+        int spawnIndex = GameHistory.NO_SPAWN;
+        for (int row = 0; row < grid.getnRows(); row++) {
+            for (int col = 0; col < grid.getnCols(); col++) {
+                int tile = grid.getTile(row, col);
+                if (tile == moved.getTile(row, col))
+                    continue;
+                if (spawnIndex != GameHistory.NO_SPAWN || moved.getTile(row, col) != 0 || (tile != 2 && tile != 4))
+                    return GameHistory.NO_SPAWN;
+                spawnIndex = row * grid.getnCols() + col;
             }
         }
-        return moveCount;
+        return spawnIndex;
     }
 
 }
@@ -0,0 +1,192 @@
+package game;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Weighted evaluation of a grid, every term is between 0 and 1 and so is the weighted result.
+ * Monotonicity, smoothness, empty tiles and possible merges are scored per row and column, for lines of up to
+ * {@value RowTable#MAX_LENGTH} tiles the weighted sum of these terms is looked up in a table built for the weights,
+ * for {@value RowTable#ROW_LENGTH} tiles right away and for other lengths the first time they're scored.
+ * Whether the biggest tile lies in the top left corner is scored for the whole grid.
+ */
+public final class Heuristic {
+
+    public static final Heuristic DEFAULT = new Heuristic(4, 1, 1, 1, 1);
+    public static final int WEIGHT_COUNT = 5;
+
+    private static final int MAX_EXPONENT = 15;
+
+    private final double monotonicity;
+    private final double smoothness;
+    private final double emptyTiles;
+    private final double merges;
+    private final double maxSquareInCorner;
+    private final double totalWeight;
+    private final float[] rowLineScores;
+    private final AtomicReferenceArray<float[]> lineScores = new AtomicReferenceArray<>(RowTable.MAX_LENGTH + 1);
+
+    public Heuristic(double monotonicity, double smoothness, double emptyTiles, double merges,
+                     double maxSquareInCorner) {
+        this.monotonicity = monotonicity;
+        this.smoothness = smoothness;
+        this.emptyTiles = emptyTiles;
+        this.merges = merges;
+        this.maxSquareInCorner = maxSquareInCorner;
+        // with a negative weight the result could leave 0 to 1, which the search's pruning relies on
+        if (!(monotonicity >= 0 && smoothness >= 0 && emptyTiles >= 0 && merges >= 0 && maxSquareInCorner >= 0))
+            throw new IllegalArgumentException("Weights can't be negative");
+        this.totalWeight = monotonicity + smoothness + emptyTiles + merges + maxSquareInCorner;
+        if (!(totalWeight > 0))
+            throw new IllegalArgumentException("Weights have to add up to more than 0");
+        rowLineScores = buildLineScores(RowTable.ROW_LENGTH);
+        lineScores.set(RowTable.ROW_LENGTH, rowLineScores);
+    }
+
+    /**
+     * @param weights in the order of the other constructor's parameters
+     */
+    public Heuristic(double[] weights) {
+        this(checkCount(weights)[0], weights[1], weights[2], weights[3], weights[4]);
+    }
+
+    private static double[] checkCount(double[] weights) {
+        if (weights.length != WEIGHT_COUNT)
+            throw new IllegalArgumentException("Expected " + WEIGHT_COUNT + " weights, not " + weights.length);
+        return weights;
+    }
+
+    /**
+     * @param line packed exponents, first tile in the lowest bits
+     * @return weighted sum of the line terms
+     */
+    double lineScore(int line, int length) {
+        if (length == RowTable.ROW_LENGTH)
+            return rowLineScores[line];
+        if (length > RowTable.MAX_LENGTH)
+            return calculateLineScore(line, length);
+        float[] scores = lineScores.get(length);
+        if (scores == null) {
+            // threads racing here build equal tables, any of them can be kept
+            scores = buildLineScores(length);
+            lineScores.set(length, scores);
+        }
+        return scores[line];
+    }
+
+    private float[] buildLineScores(int length) {
+        float[] scores = new float[1 << (length * 4)];
+        for (int line = 0; line < scores.length; line++)
+            scores[line] = (float) calculateLineScore(line, length);
+        return scores;
+    }
+
+    /**
+     * @param averageLineScore {@link #lineScore(int, int)} averaged over all rows and columns
+     */
+    double gridScore(double averageLineScore, boolean maxSquareInCorner) {
+        return (averageLineScore + (maxSquareInCorner ? this.maxSquareInCorner : 0)) / totalWeight;
+    }
+
+    private double calculateLineScore(int line, int length) {
+        return monotonicity * monotonicityScore(line, length)
+                + smoothness * smoothnessScore(line, length)
+                + emptyTiles * emptyTileScore(line, length)
+                + merges * mergeScore(line, length);
+    }
+
+    private static int exponent(int line, int index) {
+        return (line >>> (index * 4)) & 0xF;
+    }
+
+    // 1 if the line only rises or only falls, 0 if it rises as much as it falls
+    private static double monotonicityScore(int line, int length) {
+        int rising = 0;
+        int falling = 0;
+        for (int i = 1; i < length; i++) {
+            int difference = exponent(line, i) - exponent(line, i - 1);
+            if (difference > 0)
+                rising += difference;
+            else
+                falling -= difference;
+        }
+        if (rising + falling == 0)
+            return 1;
+        return 1 - 2.0 * Math.min(rising, falling) / (rising + falling);
+    }
+
+    // differences between neighbouring tiles, empty tiles in between are skipped
+    private static double smoothnessScore(int line, int length) {
+        int totalDifference = 0;
+        int last = 0;
+        for (int i = 0; i < length; i++) {
+            int exponent = exponent(line, i);
+            if (exponent == 0)
+                continue;
+            if (last != 0)
+                totalDifference += Math.abs(exponent - last);
+            last = exponent;
+        }
+        return 1 - (double) totalDifference / (MAX_EXPONENT * (length - 1));
+    }
+
+    private static double emptyTileScore(int line, int length) {
+        int emptyTiles = 0;
+        for (int i = 0; i < length; i++)
+            if (exponent(line, i) == 0)
+                emptyTiles++;
+        return (double) emptyTiles / length;
+    }
+
+    // equal neighbours, empty tiles in between are skipped
+    private static double mergeScore(int line, int length) {
+        int merges = 0;
+        int last = 0;
+        for (int i = 0; i < length; i++) {
+            int exponent = exponent(line, i);
+            if (exponent == 0)
+                continue;
+            if (exponent == last)
+                merges++;
+            last = exponent;
+        }
+        return (double) merges / (length - 1);
+    }
+
+    /**
+     * @return whether grids transformed by the symmetry get the same score, the line terms don't change under any
+     * symmetry but the corner term only under those that keep the top left tile in place
+     */
+    public boolean isSymmetric(Symmetry symmetry) {
+        return maxSquareInCorner == 0 || symmetry.keepsTopLeft();
+    }
+
+    public double[] getWeights() {
+        return new double[]{monotonicity, smoothness, emptyTiles, merges, maxSquareInCorner};
+    }
+
+    @Override
+    public String toString() {
+        return String.format("monotonicity %.3f, smoothness %.3f, empty tiles %.3f, merges %.3f, " +
+                "max square in corner %.3f", monotonicity, smoothness, emptyTiles, merges, maxSquareInCorner);
+    }
+
+    public double getMonotonicity() {
+        return monotonicity;
+    }
+
+    public double getSmoothness() {
+        return smoothness;
+    }
+
+    public double getEmptyTiles() {
+        return emptyTiles;
+    }
+
+    public double getMerges() {
+        return merges;
+    }
+
+    public double getMaxSquareInCorner() {
+        return maxSquareInCorner;
+    }
+}
@@ -1,11 +1,17 @@
 package game;
 
+import game.bot.Engine;
 import game.bot.GameSolver;
+import game.bot.MoveBook;
+import game.bot.Ponderer;
+import game.bot.SearchMetrics;
+import game.bot.SearchStats;
 import game.bot.botMoveTask;
 import javafx.animation.Animation;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.collections.FXCollections;
@@ -34,7 +40,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Optional;
 import java.util.concurrent.*;
@@ -45,13 +50,24 @@ import static game.GameIO.*;
 public class Main extends Application {
 
     private HashMap<Integer, String> pictures;
+    private final HashMap<Integer, Image> images = new HashMap<>();
+    private ImageView[] tileViews;
     private TileGrid tileGrid;
     private Score score;
     private Timeline timeline;
-    private final String CURRENT_GAME_HISTORY_PATH = "src/data/currentGameHistory.csv";
+    private final String CURRENT_GAME_HISTORY_PATH = "src/data/currentGameHistory.bin";
+    private GameHistory history;
     private final String HIGH_SCORES_PATH = "src/data/HighScores.txt";
+    private final String HEURISTIC_WEIGHTS_PATH = "src/data/heuristicWeights.csv";
+    private final String MOVE_BOOK_PATH = "src/data/moveBook.bin";
+    private Heuristic heuristic;
+    private Ponderer ponderer;
+    private CheckMenuItem ponderItem;
+    private CheckMenuItem monteCarloItem;
 
     private TilePane tilePane;
+    private final int TILE_PANE_SIZE = 420;
+    private final int TILE_GAP = 5;
 
     private MenuItem saveScore;
     private Button btnStepBack;
@@ -60,8 +76,11 @@ public class Main extends Application {
     private StringProperty scoreProp;
     private StringProperty timeProp;
 
-    private Timeline botTimeline;
+    private boolean botPlaying;
+    private int botSession; // moves searched before the bot was stopped and started again are dropped
+    private ExecutorService botExecutor;
     private Button btnStopBot;
+    private Label lblSearchStats;
 
     private Slider depthLimitSlider;
     private Spinner<Double> maxMoveTimeSpinner;
@@ -86,6 +105,10 @@ public class Main extends Application {
 
         initializePics();
         setTimeline();
+        loadHeuristic();
+        loadMoveBook();
+        ponderer = new Ponderer(heuristic);
+        botExecutor = Executors.newSingleThreadExecutor();
 
         Menu menuScore = new Menu("HighScores");
         MenuItem showHighscores = new MenuItem("Show Highscores");
@@ -103,7 +126,11 @@ public class Main extends Application {
         MenuItem botMove = new MenuItem("Get a Hint (H)");
         MenuItem botPlay = new MenuItem("Let the Bot play");
         MenuItem botSettings = new MenuItem("Bot-settings");
-        menuBot.getItems().addAll(botMove, botPlay, botSettings);
+        MenuItem saveSearchStats = new MenuItem("Save search stats");
+        ponderItem = new CheckMenuItem("Ponder");
+        ponderItem.setSelected(true);
+        monteCarloItem = new CheckMenuItem("Play with rollouts");
+        menuBot.getItems().addAll(botMove, botPlay, botSettings, ponderItem, monteCarloItem, saveSearchStats);
         MenuBar menuBar = new MenuBar();
         menuBar.getMenus().addAll(menuScore, menuIO, menuBot);
 
@@ -146,7 +173,7 @@ public class Main extends Application {
 
         BorderPane mainPain = new BorderPane();
 
-        HBox botSettingsBox = new HBox(new Label("Bot depth: "), depthLimitSlider,
+        HBox botSettingsBox = new HBox(new Label("Hint depth: "), depthLimitSlider,
                 new Label("\t\t Max time/move (s): "), maxMoveTimeSpinner, new Label("\t"), btnStopBot);
         botSettingsBox.setPadding(new Insets(10, 10, 10, 10));
         botSettingsBox.setAlignment(Pos.CENTER);
@@ -162,7 +189,10 @@ public class Main extends Application {
         leftBox.setVisible(false);
         mainPain.setLeft(leftBox);
 
-        VBox rightBox = new VBox();
+        lblSearchStats = new Label();
+        lblSearchStats.setStyle("-fx-font-size: 10");
+        VBox rightBox = new VBox(lblSearchStats);
+        rightBox.setPadding(new Insets(10,10,10,10));
         rightBox.setPrefSize(130, 50);
         mainPain.setRight(rightBox);
 
@@ -213,6 +243,17 @@ public class Main extends Application {
             }
         });
 
+        saveSearchStats.setOnAction(event -> {
+            File file = new FileChooser().showSaveDialog(window);
+            if (file == null)
+                return;
+            try {
+                GameSolver.getMetrics().writeCsv(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+
         saveScore.setOnAction(event -> {
             try {
                 showSaveScoreDialog();
@@ -316,7 +357,7 @@ public class Main extends Application {
 
         botPlay.setOnAction(event -> {
             try {
-                startBotTimeline();
+                startBot();
             }
             catch (NullPointerException exception){
                 showNewGameAlert();
@@ -326,7 +367,12 @@ public class Main extends Application {
             }
         });
 
-        btnStopBot.setOnAction(event -> stopBotTimeline());
+        btnStopBot.setOnAction(event -> stopBot());
+
+        ponderItem.setOnAction(event -> {
+            if (!ponderItem.isSelected())
+                ponderer.stop();
+        });
 
         botSettings.setOnAction(event -> botSettingsBox.setVisible(!botSettingsBox.isVisible()));
 
@@ -345,13 +391,21 @@ public class Main extends Application {
 
         gameHistorySlider.valueProperty().addListener((observable, oldValue, newValue) -> {
             try {
-                drawGame(loadGridAtPos(new File(CURRENT_GAME_HISTORY_PATH), (int) gameHistorySlider.getValue()));
+                drawGame(history.getGrid((int) gameHistorySlider.getValue()));
             } catch (IOException exception) {
                 exception.printStackTrace();
             }
         });
     }
 
+    @Override
+    public void stop() throws IOException {
+        botExecutor.shutdownNow();
+        ponderer.stop();
+        if (history != null)
+            history.close();
+    }
+
     private void newGame() throws IOException {
         tileGrid = new TileGrid(4, 4);
         startGame();
@@ -365,7 +419,10 @@ public class Main extends Application {
     private void startGame() throws IOException {
         setScore();
         drawGame();
-        saveGrid(tileGrid, new File(CURRENT_GAME_HISTORY_PATH), false);
+        if (history != null)
+            history.close();
+        history = GameHistory.create(new File(CURRENT_GAME_HISTORY_PATH), tileGrid.getnRows(), tileGrid.getnCols());
+        history.appendStart(tileGrid);
         btnStepBack.setDisable(false);
         saveScore.setVisible(false);
         leftBox.setVisible(false);
@@ -378,21 +435,50 @@ public class Main extends Application {
             showNewGameAlert();
             return;
         }
-        if (direction != null && tileGrid.move(direction)) {
-            tileGrid.addTileRandomly();
+        MoveEvent event = new MoveEvent();
+        event.begin();
+        boolean moved = direction != null && tileGrid.move(direction);
+        int spawnIndex = GameHistory.NO_SPAWN;
+        if (moved) {
+            ponder();
+            spawnIndex = tileGrid.addTileRandomly();
         } else if (tileGrid.gameIsOver()) {
             gameOver();
         }
+        long renderStart = System.nanoTime();
         drawGame();
         setScore();
-        saveGrid(tileGrid, new File(CURRENT_GAME_HISTORY_PATH), true);
+        setSearchStats();
+        long ioStart = System.nanoTime();
+        if (moved)
+            history.append(tileGrid, direction, spawnIndex);
+        event.end();
+        if (event.shouldCommit()) {
+            event.direction = direction == null ? null : direction.name();
+            event.moved = moved;
+            event.renderTime = ioStart - renderStart;
+            event.ioTime = System.nanoTime() - ioStart;
+            event.commit();
+        }
+    }
+
+    // stats of the last bot move and the move times of the latest ones
+    private void setSearchStats() {
+        SearchMetrics metrics = GameSolver.getMetrics();
+        SearchStats last = metrics.getLast();
+        if (last == null)
+            return;
+        lblSearchStats.setText(String.format("Last bot move:%n%s, depth %d%n%,d nodes%n%,d leaves%n"
+                        + "%,d chance nodes%n%,d table hits (%.1f%%)%n%.1f ms%n%,.0f nodes/s%n%n"
+                        + "Move time (ms):%np50 %.1f%np99 %.1f%nmax %.1f",
+                last.getMove(), last.getDepth(), last.getNodes(), last.getLeaves(), last.getChanceNodes(),
+                last.getTableHits(), last.getTableHitRate() * 100, last.getWallTimeMillis(), last.getNodesPerSecond(),
+                metrics.getLatencyPercentile(50), metrics.getLatencyPercentile(99), metrics.getMaxLatency()));
     }
 
     private void gameOver() throws IOException {
         timeline.stop();
-        if (botTimeline != null){
-            stopBotTimeline();
-        }
+        stopBot();
         saveScore.setVisible(true);
         btnStepBack.setDisable(true);
         setGameHistorySlider();
@@ -400,54 +486,64 @@ public class Main extends Application {
         alert.show();
     }
 
-    private void startBotTimeline() {
-        botTimeline = new Timeline(new KeyFrame(Duration.millis(150), //<- smooth but poor performance 
-                event -> {
-                    boolean exceededMoveTime = false;
-                    try {
-                        ExecutorService executor = Executors.newSingleThreadExecutor();
-                        Future<Direction> directionFuture = executor.submit(new botMoveTask(tileGrid, getDepthlimit()));
-                        try {
-                            Direction direction = directionFuture.get((long) getMaxMoveTime(), TimeUnit.MILLISECONDS);
-                            move(direction);
-
-                        } catch (TimeoutException  e) {
-                            directionFuture.cancel(true);
-                            exceededMoveTime = true;
-                        }
-                        catch (ExecutionException | NullPointerException e){
-                            showNewGameAlert();
-                            botTimeline.stop();
-                            return;
-                        }
-                        finally {
-                            executor.shutdownNow();
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                    adjustBotDepth(exceededMoveTime);
-                }));
-        botTimeline.setCycleCount(Animation.INDEFINITE);
-        botTimeline.play();
+    private void startBot() {
+        if (botPlaying)
+            return;
+        TileGrid grid = tileGrid.copy();
+        botPlaying = true;
+        botSession++;
         btnStopBot.setManaged(true);
         btnStopBot.setVisible(true);
+        requestBotMove(grid);
+    }
+
+    // the search runs on the bot thread, its move is made on the FX thread, which then asks for the next one
+    private void requestBotMove(TileGrid grid) {
+        long maxMoveTime = (long) getMaxMoveTime();
+        botMoveTask task = monteCarloItem.isSelected()
+                ? new botMoveTask(grid, Engine.MONTE_CARLO, GameSolver.MAX_DEPTH, maxMoveTime, heuristic)
+                : new botMoveTask(grid, GameSolver.MAX_DEPTH, maxMoveTime, ponderer);
+        boolean ponder = ponderItem.isSelected() && !monteCarloItem.isSelected();
+        int session = botSession;
+        CompletableFuture.supplyAsync(() -> {
+            Direction direction;
+            try {
+                direction = task.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+            // the replies are searched while the move is made and its tile added, the next request takes them
+            TileGrid moved = grid.copy();
+            if (ponder && moved.move(direction))
+                ponderer.ponder(moved, GameSolver.MAX_DEPTH, maxMoveTime);
+            return direction;
+        }, botExecutor).whenComplete((direction, exception) ->
+                Platform.runLater(() -> makeBotMove(session, grid, direction, exception)));
     }
 
-    private void adjustBotDepth(boolean exceededMoveTime) {
-        if(exceededMoveTime){
-            if(getDepthlimit()-1 > 0)
-                setDepthLimit(getDepthlimit()-1);
+    private void makeBotMove(int session, TileGrid grid, Direction direction, Throwable exception) {
+        if (!botPlaying || session != botSession)
+            return;
+        if (exception != null) {
+            stopBot();
+            showNewGameAlert();
+            exception.printStackTrace();
+            return;
         }
-        else{
-            int emptyTiles = tileGrid.countEmptyTiles();
-//            setDepthLimit(emptyTiles > 8 ? 1 : emptyTiles > 6 ? 2 : emptyTiles > 4 ? 3 : emptyTiles > 2 ? 4 : 5);
-          setDepthLimit(emptyTiles > 8 ? 1 : emptyTiles > 5 ? 2 : emptyTiles > 4 ? 3 : emptyTiles > 2 ? 4 : 5);
+        try {
+            // the move is for an old grid if a new game was started or a step taken back meanwhile
+            if (tileGrid.sameTiles(grid))
+                move(direction);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+        if (botPlaying)
+            requestBotMove(tileGrid.copy());
     }
 
-    private void stopBotTimeline() {
-        botTimeline.stop();
+    private void stopBot() {
+        botPlaying = false;
+        ponderer.stop();
         btnStopBot.setVisible(false);
         btnStopBot.setManaged(false);
     }
@@ -456,24 +552,52 @@ public class Main extends Application {
         return (int) depthLimitSlider.getValue();
     }
 
-    private void setDepthLimit(int depth) {
-        depthLimitSlider.setValue(depth);
-    }
-
     private double getMaxMoveTime(){
         return maxMoveTimeSpinner.getValue()*1000;
     }
 
     private Direction getBotMove() throws Exception{
-        GameSolver gameSolver = new GameSolver((TileGrid) TileGrid.deepCopy(this.tileGrid), getDepthlimit());
         try{
-            return gameSolver.nexMove();
+            return ponderer.nextMove(this.tileGrid, getDepthlimit(), GameSolver.NO_TIME_LIMIT);
         }catch (NullPointerException exception){
             showNewGameAlert();
             return null;
         }
     }
 
+    // searches the replies to every tile the moved grid could get with the settings of the hints while a player thinks,
+    // the bot ponders its own replies as soon as it picked a move
+    private void ponder() {
+        if (!ponderItem.isSelected() || botPlaying)
+            return;
+        ponderer.ponder(tileGrid.copy(), getDepthlimit(), GameSolver.NO_TIME_LIMIT);
+    }
+
+    // weights written by the WeightTuner, if there are any
+    private void loadHeuristic() {
+        heuristic = Heuristic.DEFAULT;
+        File weights = new File(HEURISTIC_WEIGHTS_PATH);
+        if (!weights.exists())
+            return;
+        try {
+            heuristic = loadWeights(weights);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // book written by the MoveBookGenerator, if there is one
+    private void loadMoveBook() {
+        File book = new File(MOVE_BOOK_PATH);
+        if (!book.exists())
+            return;
+        try {
+            GameSolver.setMoveBook(MoveBook.open(book));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     private void setTimeline() {
         timeline = new Timeline(new KeyFrame(Duration.millis(1000),
                 event -> {
@@ -490,11 +614,10 @@ public class Main extends Application {
         int cols = 4;
         tilePane.setPrefRows(rows);
         tilePane.setPrefColumns(cols);
-        int gap = 5;
-        tilePane.setMinSize(420, 420);
-        tilePane.setMaxSize(420, 420);
-        tilePane.setVgap(gap);
-        tilePane.setHgap(gap);
+        tilePane.setMinSize(TILE_PANE_SIZE, TILE_PANE_SIZE);
+        tilePane.setMaxSize(TILE_PANE_SIZE, TILE_PANE_SIZE);
+        tilePane.setVgap(TILE_GAP);
+        tilePane.setHgap(TILE_GAP);
         tilePane.setAlignment(Pos.TOP_LEFT);
     }
 
@@ -518,7 +641,7 @@ public class Main extends Application {
     }
 
     private void setGameHistorySlider() throws IOException {
-        int moveCount = getMoveCount(new File(CURRENT_GAME_HISTORY_PATH));
+        int moveCount = history.getMoveCount();
         gameHistorySlider.setMax(moveCount);
         gameHistorySlider.setMin(0);
         gameHistorySlider.setMax(moveCount);
@@ -570,7 +693,7 @@ public class Main extends Application {
         alert.setHeaderText(" Shortcuts: \n    W A S D + Arrow keys for movement \n    H for Bot move \n\n " +
                 "After you have finished a game, you'll be able to save your score. \n\n Press Enter " +
                 "if Focus is stuck on any Node. \n\n You can adjust the bot depth manually and play by pressing H " +
-                "or give the bot a max move time and let it do the work.\n Start the bot with a low depth.");
+                "or give the bot a max move time and let it do the work.\n The bot searches as deep as it gets in that time.");
         alert.show();
     }
 
@@ -604,43 +727,73 @@ public class Main extends Application {
     }
 
     private void stepBack() throws IOException {
-        displayGridAtMove(getMoveCount(new File(CURRENT_GAME_HISTORY_PATH))-1);
-        removeLastLines(new File(CURRENT_GAME_HISTORY_PATH), tileGrid.getnCols()+1);
-    }
-
-    private void displayGridAtMove(int moveNumber) throws IOException {
-        tileGrid = loadGridAtPos(new File(CURRENT_GAME_HISTORY_PATH), moveNumber);
+        int previousMove = history.getMoveCount() - 1;
+        tileGrid = history.getGrid(previousMove);
+        history.truncate(previousMove);
         drawGame();
     }
 
-    private void drawGame() throws FileNotFoundException {
-        tilePane.getChildren().clear();
-        for (ArrayList<Integer> row : tileGrid.getTiles()) {
-            for (int col : row)
-                tilePane.getChildren().add(getIview(pictures.get(col)));
+    private void drawGame() throws IOException {
+        drawGame(tileGrid);
+    }
+
+    // only the images of changed tiles are swapped, the views stay in the tile pane
+    private void drawGame(TileGrid grid) throws IOException {
+        DrawGameEvent event = new DrawGameEvent();
+        event.begin();
+        if (tileViews == null || tilePane.getPrefRows() != grid.getnRows()
+                || tilePane.getPrefColumns() != grid.getnCols())
+            setTileViews(grid.getnRows(), grid.getnCols());
+        int index = 0;
+        for (int row = 0; row < grid.getnRows(); row++) {
+            for (int col = 0; col < grid.getnCols(); col++) {
+                Image image = getImage(grid.getTile(row, col));
+                if (tileViews[index].getImage() != image)
+                    tileViews[index].setImage(image);
+                index++;
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.tiles = grid.getnRows() * grid.getnCols();
+            event.commit();
         }
     }
 
-    private void drawGame(TileGrid grid) throws FileNotFoundException {
-        tilePane.getChildren().clear();
-        for (ArrayList<Integer> row : grid.getTiles()) {
-            for (int col : row)
-                tilePane.getChildren().add(getIview(pictures.get(col)));
-        }
+    // the tiles shrink so every grid size fills the same square
+    private void setTileViews(int rows, int cols) {
+        tilePane.setPrefRows(rows);
+        tilePane.setPrefColumns(cols);
+        int lines = Math.max(rows, cols);
+        double imageSize = (TILE_PANE_SIZE - TILE_GAP * (lines - 1)) / (double) lines;
+        tileViews = new ImageView[rows * cols];
+        for (int i = 0; i < tileViews.length; i++)
+            tileViews[i] = getIview(imageSize);
+        tilePane.getChildren().setAll(tileViews);
     }
 
-    private ImageView getIview(String filePath) throws FileNotFoundException {
-        Image image = loadImage(filePath);
-        ImageView iView = new ImageView(image);
-        int imageSize = 100;
+    private ImageView getIview(double imageSize) {
+        ImageView iView = new ImageView();
         iView.setFitWidth(imageSize);
         iView.setFitHeight(imageSize);
         iView.setPreserveRatio(true);
         return iView;
     }
 
-    private Image loadImage(String filepath) throws FileNotFoundException {
-        return new Image(getFileInputStream(filepath));
+    // every tile value is decoded once, the first time it's drawn
+    private Image getImage(int tileValue) throws IOException {
+        Image image = images.get(tileValue);
+        if (image == null) {
+            image = loadImage(pictures.get(tileValue));
+            images.put(tileValue, image);
+        }
+        return image;
+    }
+
+    private Image loadImage(String filepath) throws IOException {
+        try (FileInputStream stream = getFileInputStream(filepath)) {
+            return new Image(stream);
+        }
     }
 
     private FileInputStream getFileInputStream(String filepath) throws FileNotFoundException {
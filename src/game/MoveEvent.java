@@ -0,0 +1,35 @@
+package game;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event of one move on the FX thread, split into the time spent drawing and saving the history.
+ */
+@Name("game.Move")
+@Label("Move")
+@Category({"2048", "Game Loop"})
+@Description("Move made by the player or the bot")
+@StackTrace(false)
+class MoveEvent extends Event {
+
+    @Label("Direction")
+    String direction;
+
+    @Label("Moved")
+    @Description("Whether the move changed the grid")
+    boolean moved;
+
+    @Label("Render Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long renderTime;
+
+    @Label("Disk I/O Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long ioTime;
+}
@@ -0,0 +1,156 @@
+package game;
+
+/**
+ * Results of shifting every possible line of a given length, built once per length the first time it's needed.
+ * A line is indexed by its packed form (4 bits exponent per tile, first tile in the lowest bits).
+ * A line moved if the shifted line differs from the index.
+ * Lines longer than {@value #MAX_LENGTH} tiles have too many forms for a table of their own. They're split into their
+ * first {@value #ROW_LENGTH} tiles and the rest, both shifted by their tables, and a tile left open for merging at the
+ * end of the part shifted first merges with the first tile of the other part if they're equal.
+ */
+final class RowTable {
+    static final int ROW_LENGTH = 4;
+    static final int MAX_LENGTH = 5;
+
+    private static final int CELL_BITS = 4;
+    private static final int CELL_MASK = 0xF;
+    private static final RowTable[] SHORT_TABLES = new RowTable[ROW_LENGTH + 1];
+    private static final RowTable[] SPLIT_TABLES = new RowTable[TileGrid.MAX_LINE_LENGTH + 1];
+
+    static {
+        for (int length = 1; length <= ROW_LENGTH; length++)
+            SHORT_TABLES[length] = new RowTable(length);
+        for (int length = MAX_LENGTH + 1; length <= TileGrid.MAX_LINE_LENGTH; length++)
+            SPLIT_TABLES[length] = new RowTable(SHORT_TABLES[ROW_LENGTH], SHORT_TABLES[length - ROW_LENGTH]);
+    }
+
+    private final int[] left;
+    private final int[] right;
+    private final int[] leftScore;
+    private final int[] rightScore;
+    // exponent of the last tile of the shift if it can still merge, 0 if it can't or there is none
+    private final byte[] leftOpen;
+    private final byte[] rightOpen;
+    // tables of the first tiles and the rest of split lines, null for lines with a table of their own
+    private final RowTable head;
+    private final RowTable tail;
+    private final int tailLength;
+
+    private RowTable(int length) {
+        int size = 1 << (length * CELL_BITS);
+        left = new int[size];
+        right = new int[size];
+        leftScore = new int[size];
+        rightScore = new int[size];
+        leftOpen = new byte[size];
+        rightOpen = new byte[size];
+        for (int line = 0; line < size; line++) {
+            long shifted = TileGrid.leftShift(line, length);
+            left[line] = (int) shifted;
+            leftScore[line] = (int) (shifted >>> 32);
+            shifted = TileGrid.rightShift(line, length);
+            right[line] = (int) shifted;
+            rightScore[line] = (int) (shifted >>> 32);
+            leftOpen[line] = (byte) openExponent(line, length, true);
+            rightOpen[line] = (byte) openExponent(line, length, false);
+        }
+        head = null;
+        tail = null;
+        tailLength = 0;
+    }
+
+    private RowTable(RowTable head, RowTable tail) {
+        left = null;
+        right = null;
+        leftScore = null;
+        rightScore = null;
+        leftOpen = null;
+        rightOpen = null;
+        this.head = head;
+        this.tail = tail;
+        this.tailLength = Integer.numberOfTrailingZeros(tail.left.length) / CELL_BITS;
+    }
+
+    /**
+     * @return table for lines of the given length, up to {@link TileGrid#MAX_LINE_LENGTH}
+     */
+    static RowTable forLength(int length) {
+        if (length <= ROW_LENGTH)
+            return SHORT_TABLES[length];
+        if (length == MAX_LENGTH)
+            return LongTable.TABLE; // 4 MB per array, only built for grids that need it
+        return SPLIT_TABLES[length];
+    }
+
+    private static final class LongTable {
+        static final RowTable TABLE = new RowTable(MAX_LENGTH);
+    }
+
+    // the tile a shift ends with can merge with a following one unless it was merged itself, like in leftShift
+    private static int openExponent(int line, int length, boolean left) {
+        int lastExponent = 0;
+        for (int i = 0; i < length; i++) {
+            int exponent = (line >>> ((left ? i : length - 1 - i) * CELL_BITS)) & CELL_MASK;
+            if (exponent == 0)
+                continue;
+            lastExponent = exponent == lastExponent && exponent < CELL_MASK ? 0 : exponent;
+        }
+        return lastExponent < CELL_MASK ? lastExponent : 0;
+    }
+
+    /**
+     * @return same layout as {@link TileGrid#leftShift(int, int)}
+     */
+    long left(int line) {
+        if (head != null)
+            return splitLeft(line);
+        return (long) leftScore[line] << 32 | left[line];
+    }
+
+    long right(int line) {
+        if (head != null)
+            return splitRight(line);
+        return (long) rightScore[line] << 32 | right[line];
+    }
+
+    // the first tiles are shifted first, the rest follows the last of them
+    private long splitLeft(int line) {
+        int first = line & ((1 << (ROW_LENGTH * CELL_BITS)) - 1);
+        int rest = line >>> (ROW_LENGTH * CELL_BITS);
+        long shiftedFirst = head.left(first);
+        int firstTiles = (int) shiftedFirst == 0 ? 0
+                : (Integer.SIZE - 1 - Integer.numberOfLeadingZeros((int) shiftedFirst)) / CELL_BITS + 1;
+        int score = (int) (shiftedFirst >>> 32);
+        int open = head.leftOpen[first];
+        int firstRest = Integer.numberOfTrailingZeros(rest) / CELL_BITS;
+        if (open != 0 && rest != 0 && ((rest >>> (firstRest * CELL_BITS)) & CELL_MASK) == open) {
+            shiftedFirst += 1L << ((firstTiles - 1) * CELL_BITS);
+            score += 2 << open;
+            rest &= ~(CELL_MASK << (firstRest * CELL_BITS));
+        }
+        long shiftedRest = tail.left(rest);
+        int shifted = (int) shiftedFirst | (int) shiftedRest << (firstTiles * CELL_BITS);
+        return (long) (score + (int) (shiftedRest >>> 32)) << 32 | (shifted & 0xFFFFFFFFL);
+    }
+
+    // the last tiles are shifted first, the rest follows the first of them
+    private long splitRight(int line) {
+        int rest = line & ((1 << (tailLength * CELL_BITS)) - 1);
+        int last = line >>> (tailLength * CELL_BITS);
+        long shiftedLast = head.right(last);
+        int lastTiles = (int) shiftedLast == 0 ? 0
+                : ROW_LENGTH - Integer.numberOfTrailingZeros((int) shiftedLast) / CELL_BITS;
+        int score = (int) (shiftedLast >>> 32);
+        int open = head.rightOpen[last];
+        int lastRest = (Integer.SIZE - 1 - Integer.numberOfLeadingZeros(rest)) / CELL_BITS;
+        if (open != 0 && rest != 0 && ((rest >>> (lastRest * CELL_BITS)) & CELL_MASK) == open) {
+            shiftedLast += 1L << ((ROW_LENGTH - lastTiles) * CELL_BITS);
+            score += 2 << open;
+            rest &= ~(CELL_MASK << (lastRest * CELL_BITS));
+        }
+        long shiftedRest = tail.right(rest);
+        int shifted = (int) shiftedLast << (tailLength * CELL_BITS)
+                | (int) shiftedRest << ((ROW_LENGTH - lastTiles) * CELL_BITS);
+        return (long) (score + (int) (shiftedRest >>> 32)) << 32 | (shifted & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,23 @@
+package game;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of writing a grid to a file.
+ */
+@Name("game.SaveGrid")
+@Label("Save Grid")
+@Category({"2048", "Game Loop"})
+@StackTrace(false)
+class SaveGridEvent extends Event {
+
+    @Label("Path")
+    String path;
+
+    @Label("Append")
+    boolean append;
+}
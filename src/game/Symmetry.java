@@ -0,0 +1,101 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rotations and reflections of a grid, each written as mirroring the columns and/or the rows first and transposing
+ * after that. A move on a grid does the same as the {@link #apply(Direction) mapped} move on the transformed grid.
+ * The symmetries that transpose only fit square grids.
+ */
+public enum Symmetry {
+    IDENTITY(false, false, false),
+    MIRROR_LEFT_RIGHT(true, false, false),
+    MIRROR_UP_DOWN(false, true, false),
+    ROTATE_180(true, true, false),
+    TRANSPOSE(false, false, true),
+    ROTATE_LEFT(true, false, true),
+    ROTATE_RIGHT(false, true, true),
+    ANTI_TRANSPOSE(true, true, true);
+
+    private final boolean mirrorsCols;
+    private final boolean mirrorsRows;
+    private final boolean transposes;
+
+    Symmetry(boolean mirrorsCols, boolean mirrorsRows, boolean transposes) {
+        this.mirrorsCols = mirrorsCols;
+        this.mirrorsRows = mirrorsRows;
+        this.transposes = transposes;
+    }
+
+    /**
+     * @return symmetries of an nRows x nCols grid that don't change the heuristic's score, {@link #IDENTITY} first;
+     * only {@link #IDENTITY} and {@link #TRANSPOSE} if the heuristic weighs the corner term
+     */
+    public static Symmetry[] keptBy(Heuristic heuristic, int nRows, int nCols) {
+        List<Symmetry> symmetries = new ArrayList<>();
+        for (Symmetry symmetry : values()) {
+            if ((!symmetry.transposes || nRows == nCols) && heuristic.isSymmetric(symmetry))
+                symmetries.add(symmetry);
+        }
+        return symmetries.toArray(new Symmetry[0]);
+    }
+
+    /**
+     * @return the move on the transformed grid that does what the given move does on the grid
+     */
+    public Direction apply(Direction direction) {
+        if (mirrorsCols && (direction == Direction.LEFT || direction == Direction.RIGHT)
+                || mirrorsRows && (direction == Direction.UP || direction == Direction.DOWN))
+            direction = opposite(direction);
+        if (transposes)
+            direction = transpose(direction);
+        return direction;
+    }
+
+    public Symmetry inverse() {
+        // mirroring the columns before transposing mirrors the rows after it
+        for (Symmetry symmetry : values()) {
+            if (symmetry.transposes == transposes && symmetry.mirrorsCols == (transposes ? mirrorsRows : mirrorsCols)
+                    && symmetry.mirrorsRows == (transposes ? mirrorsCols : mirrorsRows))
+                return symmetry;
+        }
+        throw new AssertionError();
+    }
+
+    /**
+     * @return whether the top left tile stays where it is
+     */
+    public boolean keepsTopLeft() {
+        return !mirrorsCols && !mirrorsRows;
+    }
+
+    boolean mirrorsCols() {
+        return mirrorsCols;
+    }
+
+    boolean mirrorsRows() {
+        return mirrorsRows;
+    }
+
+    boolean transposes() {
+        return transposes;
+    }
+
+    private static Direction opposite(Direction direction) {
+        return Direction.values()[(direction.ordinal() + 2) % 4];
+    }
+
+    private static Direction transpose(Direction direction) {
+        switch (direction) {
+            case UP:
+                return Direction.LEFT;
+            case LEFT:
+                return Direction.UP;
+            case DOWN:
+                return Direction.RIGHT;
+            default:
+                return Direction.DOWN;
+        }
+    }
+}
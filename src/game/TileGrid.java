@@ -1,22 +1,62 @@
 package game;
 
-import java.io.*;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.util.*;
 
 public class TileGrid implements Serializable {
+    /**
+     * Chance of a randomly added tile being a 4 instead of a 2.
+     */
+    public static final double PROBABILITY_OF_FOUR = 0.1;
+    /**
+     * Most tiles per row and per column.
+     */
+    public static final int MAX_LINE_LENGTH = 8;
+    private static final int CELL_BITS = 4;
+    private static final long CELL_MASK = 0xFL;
+    private static final int CELLS_PER_WORD = Long.SIZE / CELL_BITS;
+    private static final long LOWEST_CELL_BITS = 0x1111111111111111L;
+
     private int nRows;
     private int nCols;
-    private final Random random = new Random();
-    private ArrayList<Integer>[] tiles;
+    private final Random random;
+    /**
+     * Every cell holds the exponent of its tile in 4 bits (0 = empty, 1 = 2, 2 = 4, ... 15 = 32768). Whole rows are
+     * packed into each word, cell (row, col) is stored at bit 4 * ((row % rowsPerWord) * nCols + col) of word
+     * row / rowsPerWord. Grids of up to 16 tiles fit in a single word, there that's bit 4 * (row * nCols + col).
+     */
+    private long[] words;
+    private int rowsPerWord;
+    private transient RowTable rowTable;
+    private transient RowTable colTable;
+    private int lastMoveScore;
+    // kept up to date with every change of the board
+    private long emptyTileMask;
     private int tileSum;
+    private int maxExponent;
+    private long[] savedWords = new long[8];
+    private long[] savedStats = new long[8];
+    private long[] savedMasks = new long[8];
+    private int savedCount;
 
     public TileGrid(int nRows, int nCols){
+        random = new Random();
+        setnRows(nRows);
+        setnCols(nCols);
+        setTiles();
+    }
+
+    public TileGrid(int nRows, int nCols, Random random){
+        this.random = random;
         setnRows(nRows);
         setnCols(nCols);
         setTiles();
     }
 
     public TileGrid(ArrayList<Integer>[] tiles){
+        random = new Random();
         setnRows(tiles.length);
         setnCols(tiles[0].size());
         setTiles(tiles);
@@ -24,51 +64,311 @@ public class TileGrid implements Serializable {
 
     public TileGrid(int nRows, int nCols, ArrayList<Integer>[] tiles)
     {
+        random = new Random();
         setnRows(nRows);
         setnCols(nCols);
         setTiles(tiles);
     }
 
+    /**
+     * @param board packed tiles of a grid of up to 16 tiles as returned by {@link #getBoard()}
+     */
+    public TileGrid(int nRows, int nCols, long board){
+        this(nRows, nCols, new long[]{board});
+    }
+
+    /**
+     * @param words packed tiles as returned by {@link #getBoardWords()}
+     */
+    public TileGrid(int nRows, int nCols, long[] words){
+        random = new Random();
+        setnRows(nRows);
+        setnCols(nCols);
+        initBoard();
+        if (words.length != this.words.length)
+            throw new IllegalArgumentException("A " + nRows + "x" + nCols + " grid is packed into "
+                    + this.words.length + " words, not " + words.length);
+        System.arraycopy(words, 0, this.words, 0, words.length);
+        calculateStats();
+    }
+
+    private TileGrid(TileGrid grid){
+        this(grid, grid.random);
+    }
+
+    private TileGrid(TileGrid grid, Random random){
+        this.random = random;
+        nRows = grid.nRows;
+        nCols = grid.nCols;
+        words = grid.words.clone();
+        rowsPerWord = grid.rowsPerWord;
+        rowTable = grid.rowTable;
+        colTable = grid.colTable;
+        emptyTileMask = grid.emptyTileMask;
+        tileSum = grid.tileSum;
+        maxExponent = grid.maxExponent;
+    }
+
+    /**
+     * @return number of longs the tiles of a grid of this size are packed into
+     */
+    public static int boardWords(int nRows, int nCols) {
+        int rowsPerWord = CELLS_PER_WORD / nCols;
+        return (nRows + rowsPerWord - 1) / rowsPerWord;
+    }
+
+    private void initBoard() {
+        checkSize();
+        words = new long[boardWords(nRows, nCols)];
+        rowsPerWord = CELLS_PER_WORD / nCols;
+        rowTable = RowTable.forLength(nCols);
+        colTable = RowTable.forLength(nRows);
+    }
+
+    // the shift tables are shared by all grids of a size and not serialized
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        rowTable = RowTable.forLength(nCols);
+        colTable = RowTable.forLength(nRows);
+    }
+
     private void setTiles() {
-        tiles = (ArrayList<Integer>[]) new ArrayList[nRows];
-        for (int row = 0; row < nRows; row++)
-            tiles[row] = new ArrayList<>(Collections.nCopies(nCols, 0));
+        initBoard();
+        calculateStats();
         addTileRandomly();
     }
 
     public void setTiles(ArrayList<Integer>[] tiles){
-        this.tiles = tiles;
+        initBoard();
+        for (int row = 0; row < nRows; row++)
+            for (int col = 0; col < nCols; col++)
+                putExponent(cellIndex(row, col), toExponent(tiles[row].get(col)));
+        calculateStats();
     }
 
+    /**
+     * @return a freshly built list view of the board, changes to it aren't written back
+     */
     public ArrayList<Integer>[] getTiles(){
-        return this.tiles;
+        ArrayList<Integer>[] tiles = (ArrayList<Integer>[]) new ArrayList[nRows];
+        for (int row = 0; row < nRows; row++) {
+            tiles[row] = new ArrayList<>(nCols);
+            for (int col = 0; col < nCols; col++)
+                tiles[row].add(getTile(row, col));
+        }
+        return tiles;
+    }
+
+    public int getTile(int row, int col) {
+        return toValue(getExponent(cellIndex(row, col)));
+    }
+
+    /**
+     * @return packed tiles of a grid of up to 16 tiles, bigger ones only have {@link #getBoardWords()}
+     */
+    public long getBoard() {
+        if (words.length != 1)
+            throw new IllegalStateException("The tiles of a " + nRows + "x" + nCols + " grid don't fit in a long");
+        return words[0];
+    }
+
+    /**
+     * @return copy of the packed tiles, a single word for grids of up to 16 tiles
+     */
+    public long[] getBoardWords() {
+        return words.clone();
+    }
+
+    /**
+     * @return the packed board for grids of up to 16 tiles, a hash of it for bigger ones
+     */
+    public long getBoardKey() {
+        if (words.length == 1)
+            return words[0];
+        long key = 0;
+        for (long word : words)
+            key = hashWord(key, word);
+        return key;
+    }
+
+    private static long hashWord(long key, long word) {
+        return Long.rotateLeft((key ^ word) * 0x9E3779B97F4A7C15L, 31);
+    }
+
+    /**
+     * @return grid with the tiles moved by the symmetry, rows and columns swap places if it transposes
+     */
+    public TileGrid transform(Symmetry symmetry) {
+        if (symmetry.transposes() && nRows != nCols)
+            throw new IllegalArgumentException("A " + nRows + "x" + nCols + " grid can't be transposed");
+        if (isFourByFour())
+            return new TileGrid(nRows, nCols, transform(words[0], symmetry));
+        TileGrid grid = new TileGrid(nRows, nCols, new long[words.length]);
+        for (int row = 0; row < nRows; row++) {
+            for (int col = 0; col < nCols; col++) {
+                int newRow = symmetry.mirrorsRows() ? nRows - 1 - row : row;
+                int newCol = symmetry.mirrorsCols() ? nCols - 1 - col : col;
+                int index = symmetry.transposes() ? grid.cellIndex(newCol, newRow) : grid.cellIndex(newRow, newCol);
+                grid.putExponent(index, getExponent(cellIndex(row, col)));
+            }
+        }
+        grid.calculateStats();
+        return grid;
+    }
+
+    /**
+     * @param symmetries symmetries to pick from, e.g. {@link Symmetry#keptBy(Heuristic, int, int)}
+     * @return the symmetry that transforms this grid into the one with the smallest {@link #getBoardKey()}, the
+     * canonical form that symmetric grids share
+     */
+    public Symmetry canonicalSymmetry(Symmetry[] symmetries) {
+        Symmetry canonical = symmetries[0];
+        long canonicalKey = Long.MAX_VALUE;
+        for (Symmetry symmetry : symmetries) {
+            long key = transformedKey(symmetry);
+            if (key < canonicalKey) {
+                canonical = symmetry;
+                canonicalKey = key;
+            }
+        }
+        return canonical;
+    }
+
+    /**
+     * @return {@link #getBoardKey()} of the canonical form, equal for grids that are symmetric to each other
+     */
+    public long getCanonicalKey(Symmetry[] symmetries) {
+        long canonicalKey = Long.MAX_VALUE;
+        for (Symmetry symmetry : symmetries)
+            canonicalKey = Math.min(canonicalKey, transformedKey(symmetry));
+        return canonicalKey;
+    }
+
+    // getBoardKey() of transform(symmetry), packed word by word without building the transformed grid
+    private long transformedKey(Symmetry symmetry) {
+        if (symmetry == Symmetry.IDENTITY)
+            return getBoardKey();
+        if (isFourByFour())
+            return transform(words[0], symmetry);
+        long key = 0;
+        for (int word = 0; word < words.length; word++) {
+            long transformed = 0;
+            int firstRow = word * rowsPerWord;
+            for (int row = firstRow; row < Math.min(firstRow + rowsPerWord, nRows); row++) {
+                for (int col = 0; col < nCols; col++) {
+                    // the tile that the symmetry moves to (row, col)
+                    int movedRow = symmetry.transposes() ? col : row;
+                    int movedCol = symmetry.transposes() ? row : col;
+                    int sourceRow = symmetry.mirrorsRows() ? nRows - 1 - movedRow : movedRow;
+                    int sourceCol = symmetry.mirrorsCols() ? nCols - 1 - movedCol : movedCol;
+                    transformed |= (long) getExponent(cellIndex(sourceRow, sourceCol))
+                            << (rowShift(row) + col * CELL_BITS);
+                }
+            }
+            if (words.length == 1)
+                return transformed;
+            key = hashWord(key, transformed);
+        }
+        return key;
+    }
+
+    public boolean sameTiles(TileGrid grid) {
+        return nRows == grid.nRows && nCols == grid.nCols && Arrays.equals(words, grid.words);
     }
 
     public void addTile(int row, int col){
-        tiles[row].set(col, 2);
+        addTile(row, col, 2);
+    }
+
+    public void addTile(int row, int col, int value){
+        setCell(cellIndex(row, col), toExponent(value));
+    }
+
+    private void setCell(int index, int exponent) {
+        if (getExponent(index) != 0) {
+            putExponent(index, exponent);
+            calculateStats();
+            return;
+        }
+        putExponent(index, exponent);
+        if (exponent != 0)
+            emptyTileMask &= ~(1L << index);
+        tileSum += toValue(exponent);
+        maxExponent = Math.max(maxExponent, exponent);
     }
 
-    //TODO randomly adding 4s
-    public void addTileRandomly(){
-        Map<Integer, ArrayList<Integer>> emptyTilePositions = getEmptyTilePositions();
-        Object[] rows = emptyTilePositions.keySet().toArray();
+    public boolean isEmptyTile(int row, int col) {
+        return getExponent(cellIndex(row, col)) == 0;
+    }
+
+    /**
+     * @return a grid with the same tiles, sharing this grid's random generator
+     */
+    public TileGrid copy() {
+        return new TileGrid(this);
+    }
+
+    /**
+     * @param random adds the tiles of the copy, e.g. one generator per thread
+     * @return a grid with the same tiles
+     */
+    public TileGrid copy(Random random) {
+        return new TileGrid(this, random);
+    }
 
-        int rowPos = (int) rows[random.nextInt(rows.length)];
-        ArrayList<Integer> row = emptyTilePositions.get(rowPos);
-        int colPos = row.get(random.nextInt(row.size()));
+    /**
+     * Remembers the current tiles, so moves and added tiles can be simulated in place and undone
+     * with {@link #popState()}. Calls have to be paired, last pushed state is restored first.
+     */
+    public void pushState() {
+        if (savedCount == savedStats.length) {
+            savedStats = Arrays.copyOf(savedStats, savedCount * 2);
+            savedMasks = Arrays.copyOf(savedMasks, savedCount * 2);
+        }
+        if ((savedCount + 1) * words.length > savedWords.length)
+            savedWords = Arrays.copyOf(savedWords, Math.max(savedWords.length * 2, (savedCount + 1) * words.length));
+        if (words.length == 1)
+            savedWords[savedCount] = words[0];
+        else
+            System.arraycopy(words, 0, savedWords, savedCount * words.length, words.length);
+        savedMasks[savedCount] = emptyTileMask;
+        savedStats[savedCount++] = (long) maxExponent << 32 | tileSum;
+    }
+
+    public void popState() {
+        savedCount--;
+        if (words.length == 1)
+            words[0] = savedWords[savedCount];
+        else
+            System.arraycopy(savedWords, savedCount * words.length, words, 0, words.length);
+        emptyTileMask = savedMasks[savedCount];
+        tileSum = (int) savedStats[savedCount];
+        maxExponent = (int) (savedStats[savedCount] >>> 32);
+    }
 
-        tiles[rowPos].set(colPos, 2);
+    /**
+     * @return index ({@code row * nCols + col}) of the added tile
+     */
+    public int addTileRandomly(){
+        long emptyTiles = emptyTileMask;
+        for (int target = random.nextInt(countEmptyTiles()); target > 0; target--)
+            emptyTiles &= emptyTiles - 1;
+        int exponent = random.nextDouble() < PROBABILITY_OF_FOUR ? 2 : 1;
+        int index = Long.numberOfTrailingZeros(emptyTiles);
+        setCell(index, exponent);
+        return index;
     }
 
     //row    indexes of empty col
     public Map<Integer, ArrayList<Integer>> getEmptyTilePositions() {
         Map<Integer, ArrayList<Integer>> emptyTiles = new HashMap<>();
-        int rowCount  = -1;
-        for (ArrayList<Integer> row : tiles){
-            rowCount++;
-            ArrayList<Integer> colIndexes = indexOfAllZeroes(row);
+        for (int row = 0; row < nRows; row++) {
+            ArrayList<Integer> colIndexes = new ArrayList<>();
+            for (int col = 0; col < nCols; col++)
+                if (getExponent(cellIndex(row, col)) == 0)
+                    colIndexes.add(col);
             if (!colIndexes.isEmpty())
-                emptyTiles.put(rowCount, colIndexes);
+                emptyTiles.put(row, colIndexes);
         }
         return emptyTiles;
     }
@@ -93,49 +393,196 @@ public class TileGrid implements Serializable {
     }
 
     private boolean moveLeft() {
-        int rowCount = 0;
-        boolean moved = false;
-
-        for (ArrayList<Integer> row : tiles){
-            ArrayList<Integer> movedRow = leftShift(row);
-            if (!movedRow.equals(row)){
-                moved = true;
-            }
-            tiles[rowCount] = movedRow;
-            rowCount++;
-        }
-        return moved;
+        if (words.length == 1)
+            return setMovedBoard(shiftRows(words[0], true));
+        return afterMove(shiftRows(true));
     }
 
     private boolean moveRight(){
-        return rightShift(tiles);
+        if (words.length == 1)
+            return setMovedBoard(shiftRows(words[0], false));
+        return afterMove(shiftRows(false));
     }
 
     private boolean moveUp(){
-        int rowCount = 0;
-        boolean moved = false;
+        if (isFourByFour())
+            return setMovedBoard(transpose(shiftRows(transpose(words[0]), true)));
+        if (words.length == 1)
+            return setMovedBoard(shiftCols(words[0], true));
+        return afterMove(shiftCols(true));
+    }
+
+    private boolean moveDown(){
+        if (isFourByFour())
+            return setMovedBoard(transpose(shiftRows(transpose(words[0]), false)));
+        if (words.length == 1)
+            return setMovedBoard(shiftCols(words[0], false));
+        return afterMove(shiftCols(false));
+    }
+
+    // grids of a single word are shifted on a copy of it
+
+    private long shiftRows(long board, boolean left) {
+        long movedBoard = board;
+        int score = 0;
+        for (int row = 0; row < nRows; row++) {
+            long shifted = shiftLine(getRow(board, row), rowTable, left);
+            movedBoard = withRow(movedBoard, row, (int) shifted);
+            score += (int) (shifted >>> 32);
+        }
+        lastMoveScore = score;
+        return movedBoard;
+    }
+
+    private long shiftCols(long board, boolean up) {
+        long movedBoard = board;
+        int score = 0;
+        for (int col = 0; col < nCols; col++) {
+            long shifted = shiftLine(getCol(board, col), colTable, up);
+            movedBoard = withCol(movedBoard, col, (int) shifted);
+            score += (int) (shifted >>> 32);
+        }
+        lastMoveScore = score;
+        return movedBoard;
+    }
+
+    private boolean setMovedBoard(long movedBoard) {
+        if (movedBoard == words[0])
+            return false;
+        words[0] = movedBoard;
+        return afterMove(true);
+    }
 
-        ArrayList<Integer>[] tilesT = transpose(tiles);
-        for (ArrayList<Integer> row : tilesT){
-            ArrayList<Integer> movedRow = leftShift(row);
-            tilesT[rowCount] = movedRow;
+    // bigger grids are shifted in place, line by line
 
-            if(!movedRow.equals(row))
+    private boolean shiftRows(boolean left) {
+        boolean moved = false;
+        int score = 0;
+        for (int row = 0; row < nRows; row++) {
+            int line = getRow(row);
+            long shifted = shiftLine(line, rowTable, left);
+            if ((int) shifted != line) {
+                setRow(row, (int) shifted);
                 moved = true;
-            rowCount++;
+            }
+            score += (int) (shifted >>> 32);
         }
-        tiles = transpose(tilesT);
+        lastMoveScore = score;
         return moved;
     }
 
-    private boolean moveDown(){
-        boolean moved;
-        ArrayList<Integer>[] tilesT = transpose(tiles);
-        moved = rightShift(tilesT);
-        tiles = transpose(tilesT);
+    private boolean shiftCols(boolean up) {
+        boolean moved = false;
+        int score = 0;
+        for (int col = 0; col < nCols; col++) {
+            int line = getCol(col);
+            long shifted = shiftLine(line, colTable, up);
+            if ((int) shifted != line) {
+                setCol(col, (int) shifted);
+                moved = true;
+            }
+            score += (int) (shifted >>> 32);
+        }
+        lastMoveScore = score;
         return moved;
     }
 
+    private boolean afterMove(boolean moved) {
+        if (!moved)
+            return false;
+        emptyTileMask = emptyTileMask();
+        if (lastMoveScore > 0) // only merged tiles can be a new maximum
+            maxExponent = maxExponent();
+        return true;
+    }
+
+    private static long shiftLine(int line, RowTable table, boolean left) {
+        return left ? table.left(line) : table.right(line);
+    }
+
+    private void calculateStats() {
+        emptyTileMask = emptyTileMask();
+        maxExponent = maxExponent();
+        tileSum = 0;
+        // cells past the last row are always empty
+        for (long word : words)
+            for (int i = 0; i < CELLS_PER_WORD; i++)
+                tileSum += toValue(getCell(word, i));
+    }
+
+    private long emptyTileMask() {
+        if (words.length == 1)
+            return emptyCells(words[0]) & (-1L >>> (Long.SIZE - nRows * nCols));
+        long mask = 0;
+        for (int row = 0; row < nRows; row++)
+            mask |= (emptyCells(getRow(row) & 0xFFFFFFFFL) & ((1L << nCols) - 1)) << cellIndex(row, 0);
+        return mask;
+    }
+
+    /**
+     * @return bit i set for every empty cell i of the 16 packed in the word
+     */
+    private static long emptyCells(long cells) {
+        long filledCells = cells | (cells >>> 2);
+        long empty = ~(filledCells | (filledCells >>> 1)) & LOWEST_CELL_BITS;
+        empty = (empty | (empty >>> 3)) & 0x0303030303030303L;
+        empty = (empty | (empty >>> 6)) & 0x000F000F000F000FL;
+        empty = (empty | (empty >>> 12)) & 0x000000FF000000FFL;
+        return (empty | (empty >>> 24)) & 0xFFFFL;
+    }
+
+    private int maxExponent() {
+        int max = 0;
+        for (long word : words)
+            for (int i = 0; i < CELLS_PER_WORD; i++)
+                max = Math.max(max, getCell(word, i));
+        return max;
+    }
+
+    /**
+     * @return mask with bit row * nCols + col set for every empty tile
+     */
+    public long getEmptyTileMask() {
+        return emptyTileMask;
+    }
+
+    /**
+     * @return the points the last move scored, i.e. the sum of all tiles created by merging
+     */
+    public int getLastMoveScore() {
+        return lastMoveScore;
+    }
+
+    private boolean isFourByFour() {
+        return nRows == RowTable.ROW_LENGTH && nCols == RowTable.ROW_LENGTH;
+    }
+
+    /**
+     * Swaps cell (row, col) with cell (col, row) of a packed 4x4 board.
+     */
+    private static long transpose(long board) {
+        long a1 = board & 0xF0F00F0FF0F00F0FL;
+        long a2 = board & 0x0000F0F00000F0F0L;
+        long a3 = board & 0x0F0F00000F0F0000L;
+        long a = a1 | (a2 << 12) | (a3 >>> 12);
+        long b1 = a & 0xFF00FF0000FF00FFL;
+        long b2 = a & 0x00FF00FF00000000L;
+        long b3 = a & 0x00000000FF00FF00L;
+        return b1 | (b2 >>> 24) | (b3 << 24);
+    }
+
+    private static long transform(long board, Symmetry symmetry) {
+        if (symmetry.mirrorsCols()) {
+            board = (board & 0x0F0F0F0F0F0F0F0FL) << 4 | (board >>> 4) & 0x0F0F0F0F0F0F0F0FL;
+            board = (board & 0x00FF00FF00FF00FFL) << 8 | (board >>> 8) & 0x00FF00FF00FF00FFL;
+        }
+        if (symmetry.mirrorsRows()) {
+            board = (board & 0x0000FFFF0000FFFFL) << 16 | (board >>> 16) & 0x0000FFFF0000FFFFL;
+            board = board << 32 | board >>> 32;
+        }
+        return symmetry.transposes() ? transpose(board) : board;
+    }
+
     public ArrayList<Integer>[] transpose(ArrayList<Integer>[] tiles) {
         ArrayList<Integer>[] transpose = (ArrayList<Integer>[]) new ArrayList[nCols];
         for(int col = 0; col < nCols; col++){
@@ -148,226 +595,218 @@ public class TileGrid implements Serializable {
         return transpose;
     }
 
-    private boolean rightShift(ArrayList<Integer>[] tiles) {
-        int rowCount = 0;
-        boolean moved = false;
-        for (ArrayList<Integer> row : tiles){
-
-            Collections.reverse(row);
-            ArrayList<Integer> movedRow = leftShift(row);
-            Collections.reverse(movedRow);
-            tiles[rowCount] = movedRow;
-
-            Collections.reverse(row); //for if ->
-            if(!movedRow.equals(row))
-                moved = true;
-            rowCount++;
-        }
-        return moved;
+    static long rightShift(int row, int length) {
+        long shifted = leftShift(reverseRow(row, length), length);
+        return (shifted & ~0xFFFFFFFFL) | (reverseRow((int) shifted, length) & 0xFFFFFFFFL);
     }
 
     /**
-     * @param row to be leftshifted
-     * @return Array with elements shifted to the left, if an element has twice the value of its left neighbour, it's
-     * value gets 'added' to the neighbour.
-     * 'lim' limits the number of times of adding e.g.:
-     * without lim [4, 2, 2, 8] => [16, 0, 0,0]; with lim [4, 4, 8, 0]
+     * @param row packed exponents (4 bits each, first tile in the lowest bits) to be leftshifted
+     * @param length number of tiles in the row
+     * @return row with elements shifted to the left, if an element has the same value as its left neighbour, it's
+     * value gets 'added' to the neighbour. Every tile merges at most once per shift, e.g.:
+     * [4, 2, 2, 8] => [4, 4, 8, 0] and not [16, 0, 0, 0].
+     * The shifted row is returned in the low 32 bits, the sum of all merged tiles in the high 32 bits.
      */
-    private ArrayList<Integer> leftShift(ArrayList<Integer> row) {
-        if (containsOnlyZeroes(row))
-            return row;
-        ArrayList<Integer> resultRow = new ArrayList<>(Collections.nCopies(nCols, 0));
-        int tileIndex = -1;
-        int lim = 0;
-        outerLoop:
-        for (int tileValue : row) {
-            tileIndex++;
-            if (tileValue == 0)
-                continue;
-            if (tileIndex == 0) {
-                resultRow.set(0, tileValue);
+    static long leftShift(int row, int length) {
+        int resultRow = 0;
+        int score = 0;
+        int setIndex = 0;
+        int lastExponent = 0;
+        for (int i = 0; i < length; i++) {
+            int exponent = (row >>> (i * CELL_BITS)) & (int) CELL_MASK;
+            if (exponent == 0)
                 continue;
+            if (exponent == lastExponent && exponent < CELL_MASK) {
+                resultRow += 1 << ((setIndex - 1) * CELL_BITS);
+                score += 2 << exponent;
+                lastExponent = 0;
+            } else {
+                resultRow |= exponent << (setIndex * CELL_BITS);
+                lastExponent = exponent;
+                setIndex++;
             }
-            int setIndex = -1;
-            for (int i = 1; tileIndex - i >= lim; i++) {
-                if (resultRow.get(tileIndex - i) == 0) {
-                    setIndex = tileIndex - i;
-                } else if (resultRow.get(tileIndex - i) == tileValue) {
-                    resultRow.set(tileIndex - i, tileValue * 2);
-                    lim = tileIndex+1-i;
-                    continue outerLoop;
-                }
-                else{
-                    break;
-                }
-            }
-            resultRow.set(setIndex > -1 ? setIndex : tileIndex, tileValue);
         }
-        return resultRow;
+        return (long) score << 32 | (resultRow & 0xFFFFFFFFL);
     }
 
-    private ArrayList<Integer> indexOfAllZeroes(ArrayList<Integer> list) {
-        final ArrayList<Integer> indexList = new ArrayList<>();
-        for (int i = 0; i < list.size(); i++) {
-            if (((Integer) 0).equals(list.get(i))) {
-                indexList.add(i);
-            }
-        }
-        return indexList;
+    private static int reverseRow(int row, int length) {
+        int reversed = 0;
+        for (int i = 0; i < length; i++)
+            reversed |= ((row >>> (i * CELL_BITS)) & (int) CELL_MASK) << ((length - 1 - i) * CELL_BITS);
+        return reversed;
     }
 
-    private boolean containsOnlyZeroes(ArrayList<Integer> row) {
-        for (int i : row){
-            if (i != 0)
-                return false;}
-        return true;
+    private int getRow(long board, int row) {
+        return (int) ((board >>> (cellIndex(row, 0) * CELL_BITS)) & lineMask(nCols));
     }
 
-    public boolean gameIsOver() {
-        return getEmptyTilePositions().isEmpty() && !equalTilesNextEachOther();
+    private long withRow(long board, int row, int rowValue) {
+        int shift = cellIndex(row, 0) * CELL_BITS;
+        return (board & ~(lineMask(nCols) << shift)) | ((rowValue & 0xFFFFFFFFL) << shift);
     }
 
-    public boolean equalTilesNextEachOther() {
-        return countEqualTilesNextEachOther() > 0;
+    private int getCol(long board, int col) {
+        int colValue = 0;
+        for (int row = 0; row < nRows; row++)
+            colValue |= getCell(board, cellIndex(row, col)) << (row * CELL_BITS);
+        return colValue;
     }
 
-    public int countEqualTilesNextEachOther() {
-        int count = countEqualTilesNextEachOtherPerRow(tiles);
-        return  count + countEqualTilesNextEachOtherPerRow(transpose(tiles));
+    private long withCol(long board, int col, int colValue) {
+        for (int row = 0; row < nRows; row++)
+            board = withCell(board, cellIndex(row, col), (colValue >>> (row * CELL_BITS)) & (int) CELL_MASK);
+        return board;
     }
 
-    private int countEqualTilesNextEachOtherPerRow(ArrayList<Integer>[] tiles) {
-        int count = 0;
-        for (ArrayList<Integer> row : tiles)
-            for (int col = 0; col + 1 < nCols; col++) {
-                if (row.get(col).equals(row.get(col + 1))) {
-                    count++;
-                }
-            }
-        return count;
+    private int getRow(int row) {
+        return (int) ((words[row / rowsPerWord] >>> rowShift(row)) & lineMask(nCols));
     }
 
-    public int getTileSum(){
-        tileSum = 0;
-        Arrays.stream(tiles).forEach(row -> row.forEach(col -> tileSum += col));
-        return tileSum;
+    private void setRow(int row, int rowValue) {
+        int word = row / rowsPerWord;
+        int shift = rowShift(row);
+        words[word] = (words[word] & ~(lineMask(nCols) << shift)) | ((rowValue & 0xFFFFFFFFL) << shift);
     }
 
-    public boolean maxSquareInCorner() {
-        return tiles[0].get(0) == getMaxSquare();
+    private int getCol(int col) {
+        int colValue = 0;
+        for (int row = 0; row < nRows; row++)
+            colValue |= getCell(words[row / rowsPerWord], rowShift(row) / CELL_BITS + col) << (row * CELL_BITS);
+        return colValue;
     }
 
-    public int getMaxSquare() {
-        int max = Integer.MIN_VALUE;
-        for(ArrayList<Integer> row : tiles){
-            max = Math.max(max, Collections.max(row));
+    private void setCol(int col, int colValue) {
+        for (int row = 0; row < nRows; row++) {
+            int word = row / rowsPerWord;
+            words[word] = withCell(words[word], rowShift(row) / CELL_BITS + col,
+                    (colValue >>> (row * CELL_BITS)) & (int) CELL_MASK);
         }
-        return max;
     }
 
-    public ArrayList<TileGrid> everyPossiblePosition() {
-        ArrayList<TileGrid> possiblePositions = new ArrayList<>();
-        Map<Integer, ArrayList<Integer>> emptyTilesPos = getEmptyTilePositions();
-        for (int row : emptyTilesPos.keySet()) {
-            for (int col : emptyTilesPos.get(row)) {
-                TileGrid newGrid = new TileGrid(getTiles());
-                newGrid.addTile(row, col);
-                possiblePositions.add(newGrid);
-            }
-        }
-        return possiblePositions;
+    // bit of the row's first cell in its word
+    private int rowShift(int row) {
+        return (row % rowsPerWord) * nCols * CELL_BITS;
     }
 
-    public double finalScore(){
-        double finalScore = monotonicityScore()*4;
-//      finalScore += smoothnessSore(); // these are good on their own but mess with the mon. Score..
-//      finalScore += emptyTileScore();
-        if(maxSquareInCorner())
-            finalScore++;
-        return finalScore/5;
-    }
-
-    public double smoothnessSore() {
-        double totalDiff = tileDifferenceInRows(tiles);
-        totalDiff += tileDifferenceInRows(transpose(tiles));
-        int MAX_SMOOTHNESS_SCORE = 5;
-        return Math.abs((totalDiff/getTileSum())-5)/MAX_SMOOTHNESS_SCORE;
-    }
-
-    private int tileDifferenceInRows(ArrayList<Integer>[] tiles) {
-        int totalDiff = 0;
-        for (ArrayList<Integer> row : tiles)
-            for (int col = 0; col+1 < tiles.length; col++){
-                totalDiff += Math.abs(row.get(col) - row.get(col+1));
-            }
-        return totalDiff;
+    private static long lineMask(int length) {
+        return -1L >>> (Long.SIZE - length * CELL_BITS);
     }
 
-    public double emptyTileScore() {
-        return (double) countEmptyTiles()/Math.pow(tiles.length, 2);
+    private int cellIndex(int row, int col) {
+        return row * nCols + col;
     }
 
-    public int countEmptyTiles() {
-        int emptyTileCount = 0;
-        for (Integer row : getEmptyTilePositions().keySet()){
-            emptyTileCount += getEmptyTilePositions().get(row).size();
+    private int getExponent(int index) {
+        if (words.length == 1)
+            return getCell(words[0], index);
+        int row = index / nCols;
+        return getCell(words[row / rowsPerWord], rowShift(row) / CELL_BITS + index % nCols);
+    }
+
+    private void putExponent(int index, int exponent) {
+        if (words.length == 1) {
+            words[0] = withCell(words[0], index, exponent);
+            return;
         }
-        return emptyTileCount;
+        int row = index / nCols;
+        int word = row / rowsPerWord;
+        words[word] = withCell(words[word], rowShift(row) / CELL_BITS + index % nCols, exponent);
     }
 
-    public double monotonicityScore() {
-        double MAX_MONOTONICITY_SCORE = 50;
-        return (tilesInMonotonicOrderScore() + monotonicColScore())/MAX_MONOTONICITY_SCORE;
+    private static int getCell(long board, int index) {
+        return (int) ((board >>> (index * CELL_BITS)) & CELL_MASK);
     }
 
-    private int monotonicColScore() {
-        int monotonicityScore = 0;
-        for (int i = 0; i < tiles.length; i++) {
-            if (rowIsMonotonic(transpose(tiles)[i]))
-                monotonicityScore += tiles.length - i;
-        }
-        return monotonicityScore;
+    private static long withCell(long board, int index, int exponent) {
+        int shift = index * CELL_BITS;
+        return (board & ~(CELL_MASK << shift)) | ((long) exponent << shift);
     }
 
-    private int tilesInMonotonicOrderScore(){
-        int monotonicTilesScore = 0;
-        int scoreWeight = tiles.length;
-        ArrayList<Integer> monotonicValues = getMonotonicValues();
-        for(int i = 0; i < Math.pow(tiles.length, 2); i++) {
-            if (!monotonicValues.get(i).equals(tiles[i/4].get(i%4)))
-                break;
-            monotonicTilesScore += scoreWeight;
-            if (!(i<tiles.length-1) && ((i+1) % tiles.length == 0))
-                scoreWeight--;
+    private static int toExponent(int value) {
+        if (value == 0)
+            return 0;
+        if (Integer.bitCount(value) != 1 || value < 2 || Integer.numberOfTrailingZeros(value) > CELL_MASK)
+            throw new IllegalArgumentException("Not a valid tile: " + value);
+        return Integer.numberOfTrailingZeros(value);
+    }
+
+    private static int toValue(int exponent) {
+        return exponent == 0 ? 0 : 1 << exponent;
+    }
+
+    private void checkSize() {
+        if (nRows > MAX_LINE_LENGTH || nCols > MAX_LINE_LENGTH)
+            throw new IllegalArgumentException("Grid can have at most " + MAX_LINE_LENGTH + " rows and columns");
+    }
+
+    public boolean gameIsOver() {
+        return countEmptyTiles() == 0 && !equalTilesNextEachOther();
+    }
+
+    public boolean equalTilesNextEachOther() {
+        return countEqualTilesNextEachOther() > 0;
+    }
+
+    public int countEqualTilesNextEachOther() {
+        int count = 0;
+        for (int row = 0; row < nRows; row++)
+            for (int col = 0; col < nCols; col++) {
+                int exponent = getExponent(cellIndex(row, col));
+                if (col + 1 < nCols && exponent == getExponent(cellIndex(row, col + 1)))
+                    count++;
+                if (row + 1 < nRows && exponent == getExponent(cellIndex(row + 1, col)))
+                    count++;
+            }
+        return count;
+    }
+
+    public int getTileSum(){
+        return tileSum;
+    }
 
+    public boolean maxSquareInCorner() {
+        return getCell(words[0], 0) == maxExponent;
+    }
+
+    public int getMaxSquare() {
+        return toValue(maxExponent);
+    }
+
+    public ArrayList<TileGrid> everyPossiblePosition() {
+        ArrayList<TileGrid> possiblePositions = new ArrayList<>();
+        for (long emptyTiles = emptyTileMask; emptyTiles != 0; emptyTiles &= emptyTiles - 1) {
+            TileGrid position = copy();
+            position.setCell(Long.numberOfTrailingZeros(emptyTiles), 1);
+            possiblePositions.add(position);
         }
-        return monotonicTilesScore;
+        return possiblePositions;
     }
 
-    private ArrayList<Integer> getMonotonicValues(){
-        ArrayList<Integer> monotonicValues = new ArrayList<>();
-        for (ArrayList<Integer> row : tiles)
-            monotonicValues.addAll(row);
-        Collections.sort(monotonicValues);
-        Collections.reverse(monotonicValues);
-       return monotonicValues;
+    public double finalScore(){
+        return finalScore(Heuristic.DEFAULT);
     }
 
-    public static boolean rowIsMonotonic(ArrayList<Integer> row){
-        for (int i = 0; i < row.size(); i++){
-            if (i == 0)
-                continue;
-            if (row.get(i) > row.get(i-1))
-                return false;
+    public double finalScore(Heuristic heuristic){
+        double lineScores = 0;
+        if (isFourByFour()) {
+            long board = words[0];
+            long transposed = transpose(board);
+            for (int i = 0; i < RowTable.ROW_LENGTH; i++) {
+                lineScores += heuristic.lineScore(getRow(board, i), nCols);
+                lineScores += heuristic.lineScore(getRow(transposed, i), nRows);
+            }
+        } else {
+            for (int row = 0; row < nRows; row++)
+                lineScores += heuristic.lineScore(getRow(row), nCols);
+            for (int col = 0; col < nCols; col++)
+                lineScores += heuristic.lineScore(getCol(col), nRows);
         }
-        return true;
+        return heuristic.gridScore(lineScores / (nRows + nCols), maxSquareInCorner());
     }
 
-    public static Object deepCopy(TileGrid o) throws  Exception{
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        new ObjectOutputStream( baos ).writeObject( o );
-        ByteArrayInputStream bais = new ByteArrayInputStream( baos.toByteArray() );
-        return new ObjectInputStream(bais).readObject();
+    public int countEmptyTiles() {
+        return Long.bitCount(emptyTileMask);
     }
 
     public void setnRows(int nRows) {
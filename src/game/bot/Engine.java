@@ -0,0 +1,15 @@
+package game.bot;
+
+/**
+ * The ways the bot can find its moves.
+ */
+public enum Engine {
+    /**
+     * Searches the game tree with {@link GameSolver}, the stronger the deeper it gets.
+     */
+    EXPECTIMAX,
+    /**
+     * Plays random games after every move with {@link MonteCarloSolver}, as fast early in the game as late in it.
+     */
+    MONTE_CARLO
+}
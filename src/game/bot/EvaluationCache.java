@@ -0,0 +1,164 @@
+package game.bot;
+
+import game.Heuristic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Search results kept in a memory mapped file of fixed size, so they outlive the process and are shared by every
+ * solver process on the machine that maps the same file. It backs a {@link TranspositionTable}: results it misses are
+ * looked up here, deep ones are written through to here.
+ * <p>
+ * The header holds {@link #MAGIC}, {@link #VERSION}, the grid size, the number of slots as a power of two and a
+ * counter of the processes that opened the file. Slots are laid out like in the {@link TranspositionTable}: every slot
+ * holds its data, its score and the board key xor'ed with both, so a slot torn by two writers, of this or another process,
+ * doesn't verify and is read as a miss. The key is salted with the heuristic weights, results of another heuristic
+ * don't verify either. Slots are grouped in buckets of {@value #BUCKET_SIZE}; when a bucket is full the entry stored
+ * by another process, an earlier one mostly, or else the shallowest one gets replaced.
+ */
+public class EvaluationCache {
+
+    public static final int DEFAULT_SIZE_BITS = 22; // 96 MB
+    static final int MAGIC = 0x4556414C; // "EVAL"
+    static final short VERSION = 2;
+    static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 24;
+    private static final int BUCKET_SIZE = 4;
+    private static final int GENERATION_OFFSET = 12;
+    private static final long DEPTH_MASK = 0xFF;
+    private static final long GENERATION_MASK = 0xFFFF;
+
+    private final MappedByteBuffer buffer;
+    private final int nRows;
+    private final int nCols;
+    private final long salt;
+    private final Heuristic heuristic;
+    private final int bucketMask;
+    private final int generation;
+
+    private EvaluationCache(MappedByteBuffer buffer, int nRows, int nCols, int sizeBits, Heuristic heuristic,
+                            int generation) {
+        this.buffer = buffer;
+        this.nRows = nRows;
+        this.nCols = nCols;
+        this.heuristic = heuristic;
+        this.salt = salt(heuristic);
+        this.bucketMask = (1 << sizeBits) / BUCKET_SIZE - 1;
+        this.generation = generation;
+    }
+
+    /**
+     * Maps the cache, a new file is created with 2^sizeBits empty slots.
+     * @param sizeBits has to match the size of an existing file
+     * @param heuristic the cached results belong to, those of other heuristics are misses
+     */
+    public static EvaluationCache open(File file, int nRows, int nCols, int sizeBits, Heuristic heuristic)
+            throws IOException {
+        long size = HEADER_SIZE + ((long) SLOT_SIZE << sizeBits);
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("At most 2^26 slots fit into one mapping, not 2^" + sizeBits);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock(); // another process could be creating the file as well
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                if (channel.size() == 0) {
+                    header.putInt(MAGIC).putShort(VERSION).put((byte) nRows).put((byte) nCols).putInt(sizeBits)
+                            .putInt(0).flip();
+                    while (header.hasRemaining())
+                        channel.write(header, header.position());
+                    channel.write(ByteBuffer.allocate(1), size - 1); // grows the file, the slots read as zeros
+                }
+                // the mapping stays valid after the channel is closed
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION)
+                    throw new IOException("Not an evaluation cache: " + file);
+                if (buffer.get(6) != nRows || buffer.get(7) != nCols || buffer.getInt(8) != sizeBits
+                        || channel.size() != size)
+                    throw new IOException("The evaluation cache " + file + " was made for " + buffer.get(6) + "x"
+                            + buffer.get(7) + " grids and 2^" + buffer.getInt(8) + " slots");
+                int generation = (buffer.getInt(GENERATION_OFFSET) + 1) & (int) GENERATION_MASK;
+                buffer.putInt(GENERATION_OFFSET, generation);
+                return new EvaluationCache(buffer, nRows, nCols, sizeBits, heuristic, generation);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * @return the stored score of the board searched to at least the given depth or NaN
+     */
+    public double probe(long board, int depth) {
+        long key = board ^ salt;
+        int start = bucketStart(key);
+        for (int slot = start; slot < start + BUCKET_SIZE; slot++) {
+            long entry = buffer.getLong(position(slot) + Long.BYTES);
+            long scoreBits = buffer.getLong(position(slot) + 2 * Long.BYTES);
+            if ((buffer.getLong(position(slot)) ^ entry ^ scoreBits) == key && (entry & DEPTH_MASK) >= depth)
+                return Double.longBitsToDouble(scoreBits);
+        }
+        return Double.NaN;
+    }
+
+    public void store(long board, int depth, double score) {
+        long key = board ^ salt;
+        int start = bucketStart(key);
+        int victim = start;
+        int victimPriority = Integer.MAX_VALUE;
+        for (int slot = start; slot < start + BUCKET_SIZE; slot++) {
+            long entry = buffer.getLong(position(slot) + Long.BYTES);
+            if ((buffer.getLong(position(slot)) ^ entry ^ buffer.getLong(position(slot) + 2 * Long.BYTES)) == key) {
+                if ((entry & DEPTH_MASK) > depth)
+                    return;
+                victim = slot;
+                break;
+            }
+            int priority = priority(entry);
+            if (priority < victimPriority) {
+                victim = slot;
+                victimPriority = priority;
+            }
+        }
+        long entry = (long) generation << 8 | depth;
+        long scoreBits = Double.doubleToRawLongBits(score);
+        buffer.putLong(position(victim) + Long.BYTES, entry);
+        buffer.putLong(position(victim) + 2 * Long.BYTES, scoreBits);
+        buffer.putLong(position(victim), key ^ entry ^ scoreBits);
+    }
+
+    // empty slots first, then entries of other processes, then shallow ones
+    private int priority(long entry) {
+        int depth = (int) (entry & DEPTH_MASK);
+        if (depth == 0)
+            return -1;
+        boolean current = ((entry >>> 8) & GENERATION_MASK) == generation;
+        return (current ? 256 : 0) + depth;
+    }
+
+    private int bucketStart(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return ((int) (hash >>> 32) & bucketMask) * BUCKET_SIZE;
+    }
+
+    private static int position(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static long salt(Heuristic heuristic) {
+        long salt = 0;
+        for (double weight : heuristic.getWeights())
+            salt = (salt ^ Double.doubleToLongBits(weight)) * 0xBF58476D1CE4E5B9L;
+        return salt;
+    }
+
+    public boolean fits(int nRows, int nCols, Heuristic heuristic) {
+        return this.nRows == nRows && this.nCols == nCols && this.heuristic == heuristic;
+    }
+}
@@ -1,46 +1,269 @@
 package game.bot;
 
 import game.Direction;
+import game.Heuristic;
 import game.TileGrid;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 
 public class GameSolver{
 
+    public static final int MAX_DEPTH = 12;
+    public static final long NO_TIME_LIMIT = 0;
+    private static final int TRANSPOSITION_TABLE_SIZE_BITS = 20;
+    private static final ForkJoinPool SOLVER_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private static final int METRICS_CAPACITY = 1000;
+    private static final SearchMetrics METRICS = new SearchMetrics(METRICS_CAPACITY);
+    private static TranspositionTable sharedTranspositionTable;
+    private static Heuristic sharedTranspositionTableHeuristic;
+    private static volatile MoveBook moveBook;
+    private static volatile boolean pruning = true;
+    private static EvaluationCache evaluationCache;
+
     private final TileGrid INITIAL_GRID;
     private final int DEPTH_LIMIT;
+    private final long MAX_MOVE_TIME;
+    private final Heuristic HEURISTIC;
+    private final TranspositionTable TRANSPOSITION_TABLE;
+    private final ForkJoinPool POOL;
+    private final SearchState STATE = new SearchState(pruning);
+    private int reachedDepth;
+    private SearchStats searchStats;
+    private boolean recordsMetrics = true;
 
     public GameSolver(TileGrid tileGrid, int depthlimit) {
+        this(tileGrid, depthlimit, NO_TIME_LIMIT);
+    }
+
+    /**
+     * @param depthlimit deepest search, the solver deepens from 1 up to this depth
+     * @param maxMoveTime milliseconds until the deepest finished search decides the move, a depth 1 search is
+     *                    always finished
+     */
+    public GameSolver(TileGrid tileGrid, int depthlimit, long maxMoveTime) {
+        this(tileGrid, depthlimit, maxMoveTime, Heuristic.DEFAULT);
+    }
+
+    public GameSolver(TileGrid tileGrid, int depthlimit, long maxMoveTime, Heuristic heuristic) {
+        this(tileGrid, depthlimit, maxMoveTime, heuristic, sharedTranspositionTable(tileGrid, heuristic));
+    }
+
+    /**
+     * @param transpositionTable has to be used with a single heuristic only
+     */
+    public GameSolver(TileGrid tileGrid, int depthlimit, long maxMoveTime, Heuristic heuristic,
+                      TranspositionTable transpositionTable) {
+        this(tileGrid, depthlimit, maxMoveTime, heuristic, transpositionTable, SOLVER_POOL);
+    }
+
+    /**
+     * @param pool runs the search tasks, a pool of a single thread makes the search independent of thread timing
+     */
+    GameSolver(TileGrid tileGrid, int depthlimit, long maxMoveTime, Heuristic heuristic,
+               TranspositionTable transpositionTable, ForkJoinPool pool) {
         this.INITIAL_GRID = tileGrid;
         this.DEPTH_LIMIT = depthlimit;
+        this.MAX_MOVE_TIME = maxMoveTime;
+        this.HEURISTIC = heuristic;
+        this.TRANSPOSITION_TABLE = transpositionTable;
+        this.POOL = pool;
+    }
+
+    /**
+     * @return the table kept between moves, replaced when a grid of another size or another heuristic is solved or
+     * the evaluation cache was changed
+     */
+    private static synchronized TranspositionTable sharedTranspositionTable(TileGrid grid, Heuristic heuristic) {
+        EvaluationCache cache = evaluationCache != null
+                && evaluationCache.fits(grid.getnRows(), grid.getnCols(), heuristic) ? evaluationCache : null;
+        if (sharedTranspositionTable == null || !sharedTranspositionTable.fits(grid.getnRows(), grid.getnCols())
+                || sharedTranspositionTableHeuristic != heuristic
+                || sharedTranspositionTable.getEvaluationCache() != cache) {
+            sharedTranspositionTable = new TranspositionTable(grid.getnRows(), grid.getnCols(),
+                    TRANSPOSITION_TABLE_SIZE_BITS, cache);
+            sharedTranspositionTableHeuristic = heuristic;
+        }
+        return sharedTranspositionTable;
     }
 
     public Direction nexMove() throws ExecutionException, InterruptedException {
-        ExecutorService fixedThreadPool = Executors.newFixedThreadPool(4);
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Direction bookMove = bookMove(event, start);
+        if (bookMove != null)
+            return bookMove;
+        TRANSPOSITION_TABLE.newSearch();
+        long deadline = MAX_MOVE_TIME == NO_TIME_LIMIT ? MoveScoreGenerator.NO_DEADLINE
+                : System.nanoTime() + MAX_MOVE_TIME * 1_000_000;
+        double[] scores = null;
+        for (int depth = 1; depth <= DEPTH_LIMIT; depth++) {
+            double[] depthScores = searchDepth(depth, depth == 1 ? MoveScoreGenerator.NO_DEADLINE : deadline, scores);
+            if (STATE.cancelled)
+                throw new CancellationException("Search was cancelled");
+            if (!Arrays.stream(depthScores).anyMatch(Double::isNaN)) {
+                scores = depthScores;
+                reachedDepth = depth;
+                continue;
+            }
+            // unfinished search, still better informed if the best move so far was finished
+            if (!Double.isNaN(depthScores[bestMove(scores).ordinal()])) {
+                scores = depthScores;
+                reachedDepth = depth;
+            }
+            break;
+        }
+        Direction bestMove = bestMove(scores);
+
+        searchStats = new SearchStats(bestMove, reachedDepth, STATE.nodes.sum(), STATE.leaves.sum(),
+                STATE.chanceNodes.sum(), STATE.tableHits.sum(), System.nanoTime() - start);
+        if (recordsMetrics)
+            METRICS.record(searchStats);
+        event.end();
+        if (event.shouldCommit()) {
+            event.depth = reachedDepth;
+            event.direction = bestMove.name();
+            event.nodes = searchStats.getNodes();
+            event.leaves = searchStats.getLeaves();
+            event.tableHits = searchStats.getTableHits();
+            event.upScore = scores[Direction.UP.ordinal()];
+            event.rightScore = scores[Direction.RIGHT.ordinal()];
+            event.downScore = scores[Direction.DOWN.ordinal()];
+            event.leftScore = scores[Direction.LEFT.ordinal()];
+            event.commit();
+        }
+        return bestMove;
+    }
+
+    // the book's move if it has the grid, searched as deep as the book was made
+    private Direction bookMove(SearchEvent event, long start) {
+        MoveBook book = moveBook;
+        Direction move = book == null ? null : book.getMove(INITIAL_GRID);
+        if (move == null)
+            return null;
+        reachedDepth = book.getDepth(INITIAL_GRID);
+        searchStats = new SearchStats(move, reachedDepth, 0, 0, 0, 0, System.nanoTime() - start);
+        if (recordsMetrics)
+            METRICS.record(searchStats);
+        event.end();
+        if (event.shouldCommit()) {
+            event.depth = reachedDepth;
+            event.direction = move.name();
+            event.book = true;
+            event.commit();
+        }
+        return move;
+    }
+
+    /**
+     * @param previousScores scores of the last depth, the best moves get searched first
+     * @return score per direction ordinal, NaN if the direction couldn't be searched before the deadline
+     */
+    private double[] searchDepth(int depth, long deadline, double[] previousScores)
+            throws ExecutionException, InterruptedException {
+        ArrayList<Direction> directions = new ArrayList<>(Arrays.asList(Direction.values()));
+        if (previousScores != null)
+            directions.sort(Comparator.comparingDouble(direction -> -previousScores[direction.ordinal()]));
         ArrayList<Future<Double>> futureScore = new ArrayList<>();
-        for (Direction direction: Direction.values()) {
-            futureScore.add(fixedThreadPool.submit(new MoveScoreGenerator(INITIAL_GRID, direction, DEPTH_LIMIT)));
+        for (Direction direction : directions) {
+            futureScore.add(POOL.submit(new MoveScoreGenerator(INITIAL_GRID, direction, depth,
+                    HEURISTIC, TRANSPOSITION_TABLE, deadline, STATE)));
         }
-        ArrayList<Double> scores = new ArrayList<>();
-        for (Future<Double> score : futureScore) {
-            scores.add(score.get());
+        double[] scores = new double[Direction.values().length];
+        for (int i = 0; i < directions.size(); i++) {
+            try {
+                scores[directions.get(i).ordinal()] = futureScore.get(i).get();
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof SearchTimeoutException))
+                    throw e;
+                scores[directions.get(i).ordinal()] = Double.NaN;
+            }
         }
-        double bestScore = Collections.max(scores);
-        Direction bestMove = Direction.values()[scores.indexOf(bestScore)];
-        fixedThreadPool.shutdownNow();
+        return scores;
+    }
 
-        debug(bestScore, bestMove);
+    private static Direction bestMove(double[] scores) {
+        Direction bestMove = Direction.values()[0];
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (Direction direction : Direction.values()) {
+            if (scores[direction.ordinal()] > bestScore) {
+                bestScore = scores[direction.ordinal()];
+                bestMove = direction;
+            }
+        }
         return bestMove;
     }
 
-    private void debug(double bestScore, Direction bestMove) {
-        for (ArrayList<Integer> x : INITIAL_GRID.getTiles())
-            System.out.println(x);
-        System.out.println("Best Move " + bestMove + ": " + bestScore + "---");
+    /**
+     * Makes every solver take the move of a grid from the book instead of searching it, if the book has the grid.
+     * @param book null to always search
+     */
+    public static void setMoveBook(MoveBook book) {
+        moveBook = book;
+    }
+
+    /**
+     * Makes the solvers started after the call skip the moves that can't beat the best one searched before them and
+     * search the moves in the order they turned out best, see {@link MoveScoreGenerator}. On by default. The
+     * transposition table holds other entries than in a full search, so a few moves and scores can differ slightly.
+     * @param prune false to search every move of every grid in a fixed order
+     */
+    public static void setPruning(boolean prune) {
+        pruning = prune;
+    }
+
+    /**
+     * Makes the solvers of grids and a heuristic the cache fits look up and keep their results in it, unless they
+     * were given a transposition table of their own.
+     * @param cache null to keep the results in memory only
+     */
+    public static synchronized void setEvaluationCache(EvaluationCache cache) {
+        evaluationCache = cache;
+    }
+
+    /**
+     * Gives up the search from any thread, {@link #nexMove()} throws a {@link CancellationException}.
+     */
+    public void cancel() {
+        STATE.cancelled = true;
+    }
+
+    /**
+     * @return depth of the search that decided the last move
+     */
+    public int getReachedDepth() {
+        return reachedDepth;
+    }
+
+    /**
+     * @return what the search for the last move did, null before {@link #nexMove()} returned
+     */
+    public SearchStats getSearchStats() {
+        return searchStats;
+    }
+
+    /**
+     * Keeps the searches of this solver out of the {@link #getMetrics() metrics}, for searches of moves that might
+     * never be made; {@link #recordMetrics(SearchStats)} adds their stats once the move is made.
+     */
+    void skipMetrics() {
+        recordsMetrics = false;
+    }
+
+    static void recordMetrics(SearchStats stats) {
+        METRICS.record(stats);
+    }
+
+    /**
+     * @return stats of the latest moves of every solver
+     */
+    public static SearchMetrics getMetrics() {
+        return METRICS;
     }
 }
@@ -0,0 +1,220 @@
+package game.bot;
+
+import game.Direction;
+import game.Heuristic;
+import game.TileGrid;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scores every move by the average points of games played out after it, the rollouts, instead of searching the game
+ * tree. Its cost grows with the number of rollouts only, so it gives a move within a few milliseconds at any stage of
+ * the game.
+ * <p>
+ * Rollouts run on one worker per core, every worker with a grid and a random generator of its own, and take turns over
+ * the possible moves. They go on until the time is up, the rollout budget is spent or {@link #stop()} is called; the
+ * best move so far can be asked for from any thread at any time. A rollout plays random moves, or the move the
+ * heuristic scores best one move ahead if the rollouts are guided, until the game is over or
+ * {@value #MAX_ROLLOUT_MOVES} moves were played.
+ */
+public class MonteCarloSolver {
+
+    public static final int DEFAULT_ROLLOUTS = 4000;
+    public static final int NO_ROLLOUT_LIMIT = Integer.MAX_VALUE;
+    private static final int MAX_ROLLOUT_MOVES = 1000;
+    private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService ROLLOUT_POOL = Executors.newFixedThreadPool(WORKERS, runnable -> {
+        Thread thread = new Thread(runnable, "rollouts-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final TileGrid INITIAL_GRID;
+    private final long MAX_MOVE_TIME;
+    private final Heuristic HEURISTIC;
+    private final int MAX_ROLLOUTS;
+    private final long SEED;
+    private final DoubleAdder[] points = new DoubleAdder[DIRECTIONS.length];
+    private final LongAdder[] rollouts = new LongAdder[DIRECTIONS.length];
+    private final AtomicLong startedRollouts = new AtomicLong();
+    private volatile boolean stopped;
+
+    /**
+     * Plays random rollouts.
+     * @param maxMoveTime milliseconds until the best move so far is taken, with no time limit
+     *                    {@value #DEFAULT_ROLLOUTS} rollouts are played
+     */
+    public MonteCarloSolver(TileGrid tileGrid, long maxMoveTime) {
+        this(tileGrid, maxMoveTime, null);
+    }
+
+    /**
+     * @param heuristic guides the rollouts, null to play random rollouts
+     */
+    public MonteCarloSolver(TileGrid tileGrid, long maxMoveTime, Heuristic heuristic) {
+        this(tileGrid, maxMoveTime, heuristic,
+                maxMoveTime == GameSolver.NO_TIME_LIMIT ? DEFAULT_ROLLOUTS : NO_ROLLOUT_LIMIT, System.nanoTime());
+    }
+
+    /**
+     * @param maxRollouts rollouts over all moves, the search ends with whichever of the time and the rollouts runs
+     *                    out first
+     * @param seed the random generator of worker i is seeded with seed + i
+     */
+    public MonteCarloSolver(TileGrid tileGrid, long maxMoveTime, Heuristic heuristic, int maxRollouts, long seed) {
+        if (maxMoveTime == GameSolver.NO_TIME_LIMIT && maxRollouts == NO_ROLLOUT_LIMIT)
+            throw new IllegalArgumentException("Rollouts need a time limit or a maximum number of rollouts");
+        this.INITIAL_GRID = tileGrid;
+        this.MAX_MOVE_TIME = maxMoveTime;
+        this.HEURISTIC = heuristic;
+        this.MAX_ROLLOUTS = maxRollouts;
+        this.SEED = seed;
+        for (int i = 0; i < DIRECTIONS.length; i++) {
+            points[i] = new DoubleAdder();
+            rollouts[i] = new LongAdder();
+        }
+    }
+
+    public Direction nexMove() throws ExecutionException, InterruptedException {
+        List<Direction> moves = new ArrayList<>();
+        for (Direction direction : DIRECTIONS) {
+            TileGrid moved = INITIAL_GRID.copy();
+            if (moved.move(direction))
+                moves.add(direction);
+        }
+        if (moves.size() <= 1)
+            return moves.isEmpty() ? DIRECTIONS[0] : moves.get(0);
+        long deadline = MAX_MOVE_TIME == GameSolver.NO_TIME_LIMIT ? Long.MAX_VALUE
+                : System.nanoTime() + MAX_MOVE_TIME * 1_000_000;
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < WORKERS; i++) {
+            Random random = new Random(SEED + i);
+            int firstMove = i % moves.size();
+            workers.add(ROLLOUT_POOL.submit(() -> playRollouts(moves, firstMove, random, deadline)));
+        }
+        try {
+            for (Future<?> worker : workers)
+                worker.get();
+        } finally {
+            stopped = true;
+        }
+        return getBestMove();
+    }
+
+    private void playRollouts(List<Direction> moves, int firstMove, Random random, long deadline) {
+        TileGrid grid = INITIAL_GRID.copy(random);
+        for (int next = firstMove; !stopped && System.nanoTime() - deadline < 0
+                && startedRollouts.getAndIncrement() < MAX_ROLLOUTS; next = (next + 1) % moves.size()) {
+            Direction direction = moves.get(next);
+            grid.pushState();
+            grid.move(direction);
+            int rolloutPoints = grid.getLastMoveScore() + playOut(grid, random);
+            grid.popState();
+            points[direction.ordinal()].add(rolloutPoints);
+            rollouts[direction.ordinal()].increment();
+        }
+    }
+
+    /**
+     * @param grid after the move, changed in place
+     * @return points scored until the end of the rollout
+     */
+    private int playOut(TileGrid grid, Random random) {
+        int rolloutPoints = 0;
+        for (int move = 0; move < MAX_ROLLOUT_MOVES; move++) {
+            grid.addTileRandomly();
+            if (!(HEURISTIC == null ? randomMove(grid, random) : guidedMove(grid)))
+                break;
+            rolloutPoints += grid.getLastMoveScore();
+        }
+        return rolloutPoints;
+    }
+
+    // a random one of the possible moves, false if there's none
+    private static boolean randomMove(TileGrid grid, Random random) {
+        int untried = (1 << DIRECTIONS.length) - 1;
+        while (untried != 0) {
+            int directions = untried;
+            for (int skipped = random.nextInt(Integer.bitCount(untried)); skipped > 0; skipped--)
+                directions &= directions - 1;
+            int ordinal = Integer.numberOfTrailingZeros(directions);
+            if (grid.move(DIRECTIONS[ordinal]))
+                return true;
+            untried &= ~(1 << ordinal);
+        }
+        return false;
+    }
+
+    // the possible move the heuristic scores best right after it, false if there's none
+    private boolean guidedMove(TileGrid grid) {
+        Direction bestMove = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (Direction direction : DIRECTIONS) {
+            grid.pushState();
+            if (grid.move(direction)) {
+                double score = grid.finalScore(HEURISTIC);
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestMove = direction;
+                }
+            }
+            grid.popState();
+        }
+        return bestMove != null && grid.move(bestMove);
+    }
+
+    /**
+     * Can be called from any thread while the rollouts are played.
+     * @return move with the most average points so far, the first move that's possible before any rollout finished
+     */
+    public Direction getBestMove() {
+        Direction bestMove = null;
+        double bestAverage = Double.NEGATIVE_INFINITY;
+        for (Direction direction : DIRECTIONS) {
+            long count = rollouts[direction.ordinal()].sum();
+            if (count == 0)
+                continue;
+            double average = points[direction.ordinal()].sum() / count;
+            if (average > bestAverage) {
+                bestAverage = average;
+                bestMove = direction;
+            }
+        }
+        if (bestMove != null)
+            return bestMove;
+        for (Direction direction : DIRECTIONS) {
+            if (INITIAL_GRID.copy().move(direction))
+                return direction;
+        }
+        return DIRECTIONS[0];
+    }
+
+    /**
+     * Ends the rollouts from any thread, {@link #nexMove()} returns the best move so far.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return rollouts finished so far over all moves
+     */
+    public long getRollouts() {
+        long count = 0;
+        for (LongAdder moveRollouts : rollouts)
+            count += moveRollouts.sum();
+        return count;
+    }
+}
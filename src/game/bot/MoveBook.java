@@ -0,0 +1,140 @@
+package game.bot;
+
+import game.Direction;
+import game.Symmetry;
+import game.TileGrid;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Best moves of positions solved ahead of time by {@link MoveBookGenerator}, read straight from a memory mapped
+ * file: opening the book maps the file and reads the header, the entries stay on disk until a lookup touches them.
+ * <p>
+ * The header holds {@link #MAGIC}, {@link #VERSION}, the grid size, the number of entries and the symmetries the
+ * book's heuristic keeps as bit mask of their ordinals. Of the grids that are symmetric to each other only the
+ * canonical form ({@link TileGrid#canonicalSymmetry(Symmetry[])}) is in the book, a looked up move is mapped back from
+ * it. An entry holds the packed board as returned by {@link TileGrid#getBoard()}, the move and the depth it was
+ * searched to. The entries are sorted by board, a lookup is a binary search. Numbers are stored big endian.
+ */
+public class MoveBook {
+
+    static final int MAGIC = 0x424F4F4B; // "BOOK"
+    static final short VERSION = 2;
+    static final int HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 12;
+
+    private final MappedByteBuffer buffer;
+    private final int nRows;
+    private final int nCols;
+    private final int entries;
+    private final Symmetry[] symmetries;
+
+    private MoveBook(MappedByteBuffer buffer, int nRows, int nCols, int entries, Symmetry[] symmetries) {
+        this.buffer = buffer;
+        this.nRows = nRows;
+        this.nCols = nCols;
+        this.entries = entries;
+        this.symmetries = symmetries;
+    }
+
+    public static MoveBook open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Not a move book: " + file);
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION)
+                throw new IOException("Not a move book: " + file);
+            int entries = buffer.getInt(8);
+            if (HEADER_SIZE + (long) entries * ENTRY_SIZE != channel.size())
+                throw new IOException("Unexpected size of the move book " + file);
+            return new MoveBook(buffer, buffer.get(6), buffer.get(7), entries, symmetries(buffer.getInt(12)));
+        }
+    }
+
+    /**
+     * @return best move of the grid, null if it isn't in the book
+     */
+    public Direction getMove(TileGrid grid) {
+        int entry = find(grid);
+        if (entry < 0)
+            return null;
+        return grid.canonicalSymmetry(symmetries).inverse().apply(getMove(entry));
+    }
+
+    /**
+     * @return depth the grid was searched to, 0 if it isn't in the book
+     */
+    public int getDepth(TileGrid grid) {
+        int entry = find(grid);
+        return entry < 0 ? 0 : getDepth(entry);
+    }
+
+    private int find(TileGrid grid) {
+        if (grid.getnRows() != nRows || grid.getnCols() != nCols)
+            return -1;
+        return find(grid.getCanonicalKey(symmetries));
+    }
+
+    /**
+     * @param board canonical form of a grid
+     * @return index of the board's entry, -1 if it isn't in the book
+     */
+    private int find(long board) {
+        int low = 0;
+        int high = entries - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleBoard = buffer.getLong(position(middle));
+            if (middleBoard < board)
+                low = middle + 1;
+            else if (middleBoard > board)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    private Direction getMove(int entry) {
+        return Direction.values()[buffer.get(position(entry) + Long.BYTES)];
+    }
+
+    private int getDepth(int entry) {
+        return buffer.get(position(entry) + Long.BYTES + 1);
+    }
+
+    static int symmetryMask(Symmetry[] symmetries) {
+        int mask = 0;
+        for (Symmetry symmetry : symmetries)
+            mask |= 1 << symmetry.ordinal();
+        return mask;
+    }
+
+    private static Symmetry[] symmetries(int mask) {
+        Symmetry[] symmetries = new Symmetry[Integer.bitCount(mask)];
+        for (int i = 0; mask != 0; mask &= mask - 1)
+            symmetries[i++] = Symmetry.values()[Integer.numberOfTrailingZeros(mask)];
+        return symmetries;
+    }
+
+    public int size() {
+        return entries;
+    }
+
+    public int getnRows() {
+        return nRows;
+    }
+
+    public int getnCols() {
+        return nCols;
+    }
+
+    static int position(int entry) {
+        return HEADER_SIZE + entry * ENTRY_SIZE;
+    }
+}
@@ -0,0 +1,213 @@
+package game.bot;
+
+import game.Direction;
+import game.GameIO;
+import game.Heuristic;
+import game.Symmetry;
+import game.TileGrid;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a {@link MoveBook} of 4x4 positions solved to a fixed depth on all cores: every opening up to -plies moves
+ * after the start and every near full position, with at most -empty empty tiles, of -games seeded self-play games.
+ * The self-play games are played at depth 1, game i with the random seed s + i. Positions are solved and written in
+ * their canonical form under the symmetries the heuristic keeps. Every game and every solved position gets a
+ * transposition table of its own and is searched on a single thread, so the same arguments always make the same
+ * book: it doesn't depend on what was searched before or on the timing of threads.
+ * Usage: MoveBookGenerator [-depth d] [-plies p] [-games n] [-empty e] [-seed s] [-threads t] [-weights file]
+ * [-out file]
+ */
+public class MoveBookGenerator {
+
+    private static final int N_ROWS = 4;
+    private static final int N_COLS = 4;
+    private static final int PROGRESS_INTERVAL = 1000;
+    private static final int TABLE_SIZE_BITS = 18;
+
+    private int depth = 5;
+    private int plies = 1;
+    private int games = 100;
+    private int maxEmptyTiles = 2;
+    private long seed = 0;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Heuristic heuristic = Heuristic.DEFAULT;
+    private File out = new File("src/data/moveBook.bin");
+    private Symmetry[] symmetries;
+    private final Queue<ForkJoinPool> solverPools = new ConcurrentLinkedQueue<>();
+    // every thread of the executor searches on a pool of its own
+    private final ThreadLocal<ForkJoinPool> solverPool = ThreadLocal.withInitial(() -> {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        solverPools.add(pool);
+        return pool;
+    });
+
+    public static void main(String[] args) throws IOException, ExecutionException, InterruptedException {
+        MoveBookGenerator generator = new MoveBookGenerator();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-depth":
+                    generator.depth = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-plies":
+                    generator.plies = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-games":
+                    generator.games = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-empty":
+                    generator.maxEmptyTiles = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-seed":
+                    generator.seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "-threads":
+                    generator.threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-weights":
+                    generator.heuristic = GameIO.loadWeights(new File(args[i + 1]));
+                    break;
+                case "-out":
+                    generator.out = new File(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        generator.run();
+    }
+
+    private void run() throws IOException, ExecutionException, InterruptedException {
+        symmetries = Symmetry.keptBy(heuristic, N_ROWS, N_COLS);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            Set<Long> openings = openings();
+            Set<Long> endgames = endgames(executor);
+            System.out.printf("%d openings, %d near full positions from %d games%n", openings.size(),
+                    endgames.size(), games);
+            Set<Long> positions = new HashSet<>(openings);
+            positions.addAll(endgames);
+            long[] boards = positions.stream().mapToLong(Long::longValue).sorted().toArray();
+            byte[] moves = solve(executor, boards);
+            write(boards, moves);
+            System.out.printf("%d positions solved to depth %d in %.1f s, written to %s%n", boards.length, depth,
+                    (System.nanoTime() - start) / 1e9, out);
+        } finally {
+            executor.shutdown();
+            solverPools.forEach(ForkJoinPool::shutdown);
+        }
+    }
+
+    // every start position and every position up to the given number of moves after it
+    private Set<Long> openings() {
+        Set<Long> openings = new HashSet<>();
+        List<TileGrid> ply = new ArrayList<>();
+        TileGrid empty = new TileGrid(N_ROWS, N_COLS, 0L);
+        addTiles(empty, ply, openings);
+        for (int i = 0; i < plies; i++) {
+            List<TileGrid> nextPly = new ArrayList<>();
+            for (TileGrid grid : ply) {
+                for (Direction direction : Direction.values()) {
+                    TileGrid moved = grid.copy();
+                    if (moved.move(direction))
+                        addTiles(moved, nextPly, openings);
+                }
+            }
+            ply = nextPly;
+        }
+        return openings;
+    }
+
+    // every grid with a 2 or a 4 added to one of the empty tiles, those with a new canonical form get added to both
+    private void addTiles(TileGrid grid, List<TileGrid> grids, Set<Long> boards) {
+        for (long emptyTiles = grid.getEmptyTileMask(); emptyTiles != 0; emptyTiles &= emptyTiles - 1) {
+            int index = Long.numberOfTrailingZeros(emptyTiles);
+            for (int value : new int[]{2, 4}) {
+                TileGrid added = grid.copy();
+                added.addTile(index / N_COLS, index % N_COLS, value);
+                if (boards.add(added.getCanonicalKey(symmetries)))
+                    grids.add(added);
+            }
+        }
+    }
+
+    private Set<Long> endgames(ExecutorService executor) throws ExecutionException, InterruptedException {
+        Set<Long> endgames = ConcurrentHashMap.newKeySet();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < games; i++) {
+            long gameSeed = seed + i;
+            futures.add(executor.submit(() -> {
+                collectEndgames(gameSeed, endgames);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures)
+            future.get();
+        return endgames;
+    }
+
+    private void collectEndgames(long gameSeed, Set<Long> endgames) throws ExecutionException, InterruptedException {
+        TileGrid grid = new TileGrid(N_ROWS, N_COLS, new Random(gameSeed));
+        TranspositionTable transpositionTable = new TranspositionTable(N_ROWS, N_COLS, TABLE_SIZE_BITS);
+        while (!grid.gameIsOver()) {
+            if (Long.bitCount(grid.getEmptyTileMask()) <= maxEmptyTiles)
+                endgames.add(grid.getCanonicalKey(symmetries));
+            Direction direction = new GameSolver(grid.copy(), 1, GameSolver.NO_TIME_LIMIT, heuristic,
+                    transpositionTable, solverPool.get()).nexMove();
+            if (!grid.move(direction))
+                break;
+            grid.addTileRandomly();
+        }
+    }
+
+    /**
+     * @return best move per board as direction ordinal
+     */
+    private byte[] solve(ExecutorService executor, long[] boards) throws ExecutionException, InterruptedException {
+        List<Future<Direction>> futures = new ArrayList<>();
+        for (long board : boards) {
+            futures.add(executor.submit(() -> new GameSolver(new TileGrid(N_ROWS, N_COLS, board), depth,
+                    GameSolver.NO_TIME_LIMIT, heuristic, new TranspositionTable(N_ROWS, N_COLS, TABLE_SIZE_BITS),
+                    solverPool.get()).nexMove()));
+        }
+        byte[] moves = new byte[boards.length];
+        for (int i = 0; i < boards.length; i++) {
+            moves[i] = (byte) futures.get(i).get().ordinal();
+            if ((i + 1) % PROGRESS_INTERVAL == 0)
+                System.out.printf("  %d / %d solved%n", i + 1, boards.length);
+        }
+        return moves;
+    }
+
+    private void write(long[] boards, byte[] moves) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MoveBook.HEADER_SIZE + boards.length * MoveBook.ENTRY_SIZE);
+        buffer.putInt(MoveBook.MAGIC).putShort(MoveBook.VERSION).put((byte) N_ROWS).put((byte) N_COLS)
+                .putInt(boards.length).putInt(MoveBook.symmetryMask(symmetries));
+        for (int i = 0; i < boards.length; i++)
+            buffer.putLong(boards[i]).put(moves[i]).put((byte) depth).putShort((short) 0);
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+    }
+}
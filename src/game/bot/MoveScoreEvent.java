@@ -0,0 +1,29 @@
+package game.bot;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of one root {@link MoveScoreGenerator}, the score of a single direction at a single depth.
+ */
+@Name("game.bot.MoveScore")
+@Label("Move Score")
+@Category({"2048", "Solver"})
+@Description("Expectimax score of one direction at one depth")
+@StackTrace(false)
+class MoveScoreEvent extends Event {
+
+    @Label("Direction")
+    String direction;
+
+    @Label("Depth")
+    int depth;
+
+    @Label("Score")
+    @Description("NaN if the search ran out of time")
+    double score;
+}
@@ -1,59 +1,304 @@
 package game.bot;
 
 import game.Direction;
+import game.Heuristic;
+import game.Symmetry;
 import game.TileGrid;
 
-import java.util.Objects;
-import java.util.concurrent.Callable;
+import java.util.ArrayList;
+import java.util.concurrent.RecursiveTask;
 
-public class MoveScoreGenerator implements Callable<Double> {
+import static game.TileGrid.PROBABILITY_OF_FOUR;
+
+/**
+ * Expectimax score of a move. Chance nodes with at least {@value #SPLIT_DEPTH} moves left to search are split into
+ * one fork join task per added tile, smaller ones are searched in place on the task's own grid.
+ * Chance nodes are cached under their canonical key, so grids that the heuristic can't tell apart from a rotation or
+ * reflection of each other share their score. Where the probability cutoff ended the search below a chance node early,
+ * the node's score depends on the path to it and isn't cached.
+ * <p>
+ * Unless the search state turns pruning off, moves are searched in the state's move order and skipped as soon as
+ * they can't beat the best move searched before them (Star1 pruning): the {@link Heuristic} scores at most
+ * {@value #MAX_SCORE}, so a chance node whose searched tiles plus that maximum for the others stay at or below the
+ * bound can't be better anymore. Such a node returns that upper bound instead of its score, the table keeps it as one.
+ * Without a minimizing player the bound from above never becomes finite, so only this bound from below prunes.
+ */
+public class MoveScoreGenerator extends RecursiveTask<Double> {
+
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+    private static final long serialVersionUID = 1L;
+    private static final double PROBABILITY_CUTOFF = 0.0001;
+    private static final int SPLIT_DEPTH = 2;
+    private static final double MAX_SCORE = 1;
+    private static final Direction[] DIRECTIONS = Direction.values();
 
     private final TileGrid INITIAL_GRID;
     private final Direction DIRECTION;
     private final int DEPTH_LIMIT;
+    private final Heuristic HEURISTIC;
+    private final TranspositionTable TRANSPOSITION_TABLE;
+    private final long DEADLINE;
+    private final SearchState STATE;
+    private final Symmetry[] SYMMETRIES;
+
+    public MoveScoreGenerator(TileGrid initalGrid, Direction direction, int depthlimit,
+                              TranspositionTable transpositionTable){
+        this(initalGrid, direction, depthlimit, Heuristic.DEFAULT, transpositionTable, NO_DEADLINE);
+    }
+
+    /**
+     * @param deadline {@link System#nanoTime()} after which the search is given up with a
+     *                 {@link SearchTimeoutException}
+     */
+    public MoveScoreGenerator(TileGrid initalGrid, Direction direction, int depthlimit, Heuristic heuristic,
+                              TranspositionTable transpositionTable, long deadline){
+        this(initalGrid, direction, depthlimit, heuristic, transpositionTable, deadline, new SearchState());
+    }
 
-    public MoveScoreGenerator(TileGrid initalGrid, Direction direction, int depthlimit){
+    /**
+     * @param state shared by the tasks of one search to count its nodes and to cancel it
+     */
+    MoveScoreGenerator(TileGrid initalGrid, Direction direction, int depthlimit, Heuristic heuristic,
+                       TranspositionTable transpositionTable, long deadline, SearchState state){
         this.INITIAL_GRID = initalGrid;
         this.DIRECTION = direction;
         this.DEPTH_LIMIT = depthlimit;
+        this.HEURISTIC = heuristic;
+        this.TRANSPOSITION_TABLE = transpositionTable;
+        this.DEADLINE = deadline;
+        this.STATE = state;
+        this.SYMMETRIES = Symmetry.keptBy(heuristic, initalGrid.getnRows(), initalGrid.getnCols());
     }
 
     @Override
-    public Double call() throws Exception {
-        return calculateScore(DIRECTION);
+    protected Double compute() {
+        MoveScoreEvent event = new MoveScoreEvent();
+        event.begin();
+        double score = Double.NaN;
+        try {
+            score = calculateScore(DIRECTION);
+            return score;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.direction = DIRECTION.name();
+                event.depth = DEPTH_LIMIT;
+                event.score = score;
+                event.commit();
+            }
+        }
     }
 
-    private double calculateScore(Direction direction) throws Exception {
-        TileGrid newGrid = null;
-        try { newGrid = (TileGrid) TileGrid.deepCopy(INITIAL_GRID);
-        } catch (Exception e) {e.printStackTrace();}
-        if (!Objects.requireNonNull(newGrid).move(direction)) //simulate Move
+    private double calculateScore(Direction direction) {
+        TileGrid newGrid = INITIAL_GRID.copy(); // moves below are simulated in place on this copy
+        if (!newGrid.move(direction)) //simulate Move
             return -1;
-        return generateScore(newGrid, 0, DEPTH_LIMIT);
+        return generateScore(newGrid, 0, DEPTH_LIMIT, 1, Double.NEGATIVE_INFINITY, new Cutoff());
     }
 
-    private double generateScore(TileGrid grid, int currentDepth, int depthLimit) throws Exception {
-        if (currentDepth == depthLimit)
+    /**
+     * Expected score over every tile that could be added to the grid, weighted by its probability.
+     * @param probability chance of the grid being reached, positions below {@value #PROBABILITY_CUTOFF} aren't
+     *                    searched any deeper
+     * @param alpha score the grid has to beat to matter, the result is only an upper bound if it doesn't
+     * @param cutoff marked if the probability cutoff ended the search of the grid early anywhere
+     */
+    private double generateScore(TileGrid grid, int currentDepth, int depthLimit, double probability,
+                                 double alpha, Cutoff cutoff) {
+        int emptyTiles = grid.countEmptyTiles();
+        if (currentDepth == depthLimit || emptyTiles == 0)
+            return calculateFinalScore(grid);
+        if (probability < PROBABILITY_CUTOFF) {
+            cutoff.reached = true;
             return calculateFinalScore(grid);
+        }
+        long board = grid.getCanonicalKey(SYMMETRIES);
+        double cachedScore = TRANSPOSITION_TABLE.probe(board, depthLimit - currentDepth, alpha);
+        if (!Double.isNaN(cachedScore)) {
+            STATE.tableHits.increment();
+            return cachedScore;
+        }
+        if (DEADLINE != NO_DEADLINE && System.nanoTime() - DEADLINE > 0 || STATE.cancelled)
+            throw new SearchTimeoutException();
+        STATE.chanceNodes.increment();
+        STATE.nodes.increment();
+        double tileProbability = probability / emptyTiles;
+        // tile scores are weighted by the chance of their value, the weights of all tiles add up to emptyTiles
+        double totalAlpha = alpha * emptyTiles;
+        boolean reachedBefore = cutoff.reached;
+        cutoff.reached = false;
+        double totalScore = depthLimit - currentDepth >= SPLIT_DEPTH
+                ? forkTileScores(grid, currentDepth, depthLimit, tileProbability, totalAlpha, cutoff)
+                : calculateTileScores(grid, currentDepth, depthLimit, tileProbability, totalAlpha, cutoff);
+        double score = totalScore / emptyTiles;
+        // a score the cutoff changed depends on the probability of the path to the grid, other paths can't use it
+        if (!cutoff.reached) {
+            if (score > alpha)
+                TRANSPOSITION_TABLE.store(board, depthLimit - currentDepth, score);
+            else
+                TRANSPOSITION_TABLE.storeUpperBound(board, depthLimit - currentDepth, score);
+        }
+        cutoff.reached |= reachedBefore;
+        return score;
+    }
+
+    private double calculateTileScores(TileGrid grid, int currentDepth, int depthLimit, double tileProbability,
+                                       double totalAlpha, Cutoff cutoff) {
         double totalScore = 0;
-        for (TileGrid position : grid.everyPossiblePosition())
-            totalScore += calculateMoveScore(position, currentDepth, depthLimit);
+        double unsearchedWeight = grid.countEmptyTiles();
+        for (long emptyTiles = grid.getEmptyTileMask(); emptyTiles != 0; emptyTiles &= emptyTiles - 1) {
+            int index = Long.numberOfTrailingZeros(emptyTiles);
+            int row = index / grid.getnCols();
+            int col = index % grid.getnCols();
+            for (int value = 2; value <= 4; value += 2) {
+                double weight = value == 2 ? 1 - PROBABILITY_OF_FOUR : PROBABILITY_OF_FOUR;
+                unsearchedWeight -= weight;
+                double alpha = childAlpha(totalAlpha, totalScore + unsearchedWeight * MAX_SCORE, weight);
+                totalScore += weight * calculateTileScore(grid, row, col, value, currentDepth, depthLimit,
+                        tileProbability * weight, alpha, cutoff);
+                double upperBound = totalScore + unsearchedWeight * MAX_SCORE;
+                if (STATE.pruning && upperBound <= totalAlpha)
+                    return upperBound;
+            }
+        }
+        return totalScore;
+    }
+
+    private double forkTileScores(TileGrid grid, int currentDepth, int depthLimit, double tileProbability,
+                                  double totalAlpha, Cutoff cutoff) {
+        ChanceBound bound = STATE.pruning ? new ChanceBound(totalAlpha, grid.countEmptyTiles()) : null;
+        ArrayList<TileScoreTask> tasks = new ArrayList<>();
+        for (long emptyTiles = grid.getEmptyTileMask(); emptyTiles != 0; emptyTiles &= emptyTiles - 1) {
+            int index = Long.numberOfTrailingZeros(emptyTiles);
+            int row = index / grid.getnCols();
+            int col = index % grid.getnCols();
+            tasks.add(new TileScoreTask(grid, row, col, 2, 1 - PROBABILITY_OF_FOUR, currentDepth, depthLimit,
+                    tileProbability, bound));
+            tasks.add(new TileScoreTask(grid, row, col, 4, PROBABILITY_OF_FOUR, currentDepth, depthLimit,
+                    tileProbability, bound));
+        }
+        invokeAll(tasks);
+        double totalScore = 0;
+        for (TileScoreTask task : tasks) {
+            totalScore += task.weight * task.join();
+            cutoff.reached |= task.cutoff.reached;
+        }
         return totalScore;
     }
 
-    private double calculateMoveScore(TileGrid grid, int currentDepth, int depthLimit) throws Exception {
+    /**
+     * @param otherScores weighted scores of the other tiles, those not searched yet at {@value #MAX_SCORE}
+     * @return score the tile has to beat for the chance node to beat its alpha
+     */
+    private double childAlpha(double totalAlpha, double otherScores, double weight) {
+        return STATE.pruning ? (totalAlpha - otherScores) / weight : Double.NEGATIVE_INFINITY;
+    }
+
+    private double calculateTileScore(TileGrid grid, int row, int col, int value, int currentDepth, int depthLimit,
+                                      double probability, double alpha, Cutoff cutoff) {
+        grid.pushState();
+        grid.addTile(row, col, value);
+        double score = calculateMoveScore(grid, currentDepth, depthLimit, probability, alpha, cutoff);
+        grid.popState();
+        return score;
+    }
+
+    private double calculateMoveScore(TileGrid grid, int currentDepth, int depthLimit, double probability,
+                                      double alpha, Cutoff cutoff) {
+        STATE.nodes.increment();
         double bestScore = 0;
-        for (Direction direction : Direction.values()) {
-              TileGrid newGrid = (TileGrid) TileGrid.deepCopy(grid);
-            if (newGrid.move(direction)) {
-                double score = generateScore(newGrid, currentDepth + 1, depthLimit);
-                bestScore = Math.max(score, bestScore);
+        Direction bestMove = null;
+        for (Direction direction : STATE.pruning ? STATE.getMoveOrder() : DIRECTIONS) {
+            grid.pushState();
+            if (grid.move(direction)) {
+                double score = generateScore(grid, currentDepth + 1, depthLimit, probability,
+                        STATE.pruning ? Math.max(alpha, bestScore) : Double.NEGATIVE_INFINITY, cutoff);
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestMove = direction;
+                }
             }
+            grid.popState();
         }
+        if (STATE.pruning && bestMove != null && bestScore > alpha)
+            STATE.recordBestMove(bestMove, depthLimit - currentDepth);
         return bestScore;
     }
 
     private double calculateFinalScore(TileGrid grid) {
-        return grid.finalScore();
+        STATE.leaves.increment();
+        return grid.finalScore(HEURISTIC);
+    }
+
+    /**
+     * Best move score after one tile was added, searched on a copy of the grid.
+     */
+    private class TileScoreTask extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 1L;
+
+        private final TileGrid grid;
+        private final double weight;
+        private final int currentDepth;
+        private final int depthLimit;
+        private final double probability;
+        private final ChanceBound bound;
+        private final Cutoff cutoff = new Cutoff();
+
+        /**
+         * @param bound of the chance node the tile is added at, null if it isn't pruned
+         */
+        TileScoreTask(TileGrid grid, int row, int col, int value, double weight, int currentDepth, int depthLimit,
+                      double tileProbability, ChanceBound bound) {
+            this.grid = grid.copy();
+            this.grid.addTile(row, col, value);
+            this.weight = weight;
+            this.currentDepth = currentDepth;
+            this.depthLimit = depthLimit;
+            this.probability = tileProbability * weight;
+            this.bound = bound;
+        }
+
+        @Override
+        protected Double compute() {
+            if (bound == null)
+                return calculateMoveScore(grid, currentDepth, depthLimit, probability, Double.NEGATIVE_INFINITY,
+                        cutoff);
+            double alpha = bound.childAlpha(weight);
+            if (alpha >= MAX_SCORE)
+                return MAX_SCORE; // the chance node can't beat its alpha anymore, the maximum keeps its bound valid
+            double score = calculateMoveScore(grid, currentDepth, depthLimit, probability, alpha, cutoff);
+            bound.searched(weight, score);
+            return score;
+        }
+    }
+
+    /**
+     * Upper bound of a chance node whose tiles are searched in parallel: the tiles searched so far at their score,
+     * the others at {@value #MAX_SCORE}.
+     */
+    private static final class ChanceBound {
+        private final double totalAlpha;
+        private double upperBound;
+
+        ChanceBound(double totalAlpha, double totalWeight) {
+            this.totalAlpha = totalAlpha;
+            this.upperBound = totalWeight * MAX_SCORE;
+        }
+
+        synchronized double childAlpha(double weight) {
+            return (totalAlpha - (upperBound - weight * MAX_SCORE)) / weight;
+        }
+
+        synchronized void searched(double weight, double score) {
+            upperBound -= weight * (MAX_SCORE - score);
+        }
+    }
+
+    /**
+     * Whether the probability cutoff ended the search below a grid early, one per task and reset for every chance
+     * node.
+     */
+    private static final class Cutoff {
+        boolean reached;
     }
 }
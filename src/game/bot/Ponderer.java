@@ -0,0 +1,133 @@
+package game.bot;
+
+import game.Direction;
+import game.Heuristic;
+import game.TileGrid;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Searches the replies to every tile that could be added after a move while the game waits for the tile, the most
+ * likely tiles first. Once the tile is known its reply is taken from that work: right away if it was searched already,
+ * by waiting for the search if it's running, and by a new search on the warmed up transposition table otherwise.
+ * Only the stats of the replies that are taken go into the {@link GameSolver#getMetrics() metrics}.
+ */
+public class Ponderer {
+
+    private final Heuristic HEURISTIC;
+    private final ExecutorService PONDER_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ponderer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Map<Long, CompletableFuture<SearchStats>> replies = Collections.emptyMap();
+    private int depth;
+    private long maxMoveTime;
+    private int generation;
+    private GameSolver currentSolver;
+    private CompletableFuture<SearchStats> currentReply;
+
+    public Ponderer(Heuristic heuristic) {
+        this.HEURISTIC = heuristic;
+    }
+
+    /**
+     * Starts searching the replies in the background, replies to an earlier move are given up.
+     * @param movedGrid grid after the move, before the tile is added
+     * @param depth search depth of the replies, like {@link GameSolver}'s
+     * @param maxMoveTime milliseconds per reply, like {@link GameSolver}'s
+     */
+    public synchronized void ponder(TileGrid movedGrid, int depth, long maxMoveTime) {
+        stop();
+        this.depth = depth;
+        this.maxMoveTime = maxMoveTime;
+        int ponderGeneration = generation;
+        replies = new LinkedHashMap<>();
+        // every empty tile is as likely as any other, a 2 is more likely than a 4
+        for (int value : new int[]{2, 4}) {
+            for (long emptyTiles = movedGrid.getEmptyTileMask(); emptyTiles != 0; emptyTiles &= emptyTiles - 1) {
+                int index = Long.numberOfTrailingZeros(emptyTiles);
+                TileGrid grid = movedGrid.copy();
+                grid.addTile(index / grid.getnCols(), index % grid.getnCols(), value);
+                CompletableFuture<SearchStats> reply = new CompletableFuture<>();
+                replies.put(grid.getBoardKey(), reply);
+                PONDER_EXECUTOR.execute(() -> search(ponderGeneration, grid, reply));
+            }
+        }
+    }
+
+    /**
+     * @return best move, taken from the pondered replies if the grid and the settings match them
+     */
+    public Direction nextMove(TileGrid grid, int depth, long maxMoveTime)
+            throws ExecutionException, InterruptedException {
+        CompletableFuture<SearchStats> reply;
+        synchronized (this) {
+            reply = depth == this.depth && maxMoveTime == this.maxMoveTime ? replies.get(grid.getBoardKey()) : null;
+            if (reply != null && !reply.isDone() && reply != currentReply)
+                reply = null; // not started yet, a search of its own is just as fast
+            stop(reply);
+        }
+        if (reply != null) {
+            try {
+                SearchStats stats = reply.get();
+                GameSolver.recordMetrics(stats);
+                return stats.getMove();
+            } catch (CancellationException ignored) {
+                // given up by another call, searched below
+            }
+        }
+        return new GameSolver(grid.copy(), depth, maxMoveTime, HEURISTIC).nexMove();
+    }
+
+    /**
+     * Gives up every reply that isn't finished.
+     */
+    public synchronized void stop() {
+        stop(null);
+    }
+
+    // a running search of the kept reply goes on
+    private void stop(CompletableFuture<SearchStats> keptReply) {
+        generation++;
+        if (currentSolver != null && currentReply != keptReply)
+            currentSolver.cancel();
+        for (CompletableFuture<SearchStats> reply : replies.values()) {
+            if (reply != keptReply)
+                reply.cancel(false);
+        }
+        replies = Collections.emptyMap();
+    }
+
+    private void search(int ponderGeneration, TileGrid grid, CompletableFuture<SearchStats> reply) {
+        GameSolver solver;
+        synchronized (this) {
+            if (ponderGeneration != generation || reply.isDone())
+                return;
+            solver = new GameSolver(grid, depth, maxMoveTime, HEURISTIC);
+            solver.skipMetrics();
+            currentSolver = solver;
+            currentReply = reply;
+        }
+        try {
+            solver.nexMove();
+            reply.complete(solver.getSearchStats());
+        } catch (CancellationException e) {
+            reply.cancel(false);
+        } catch (Exception e) {
+            reply.completeExceptionally(e);
+        } finally {
+            synchronized (this) {
+                currentSolver = null;
+                currentReply = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package game.bot;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of one {@link GameSolver#nexMove()}, the event's duration is the time the move took.
+ */
+@Name("game.bot.Search")
+@Label("Search")
+@Category({"2048", "Solver"})
+@Description("Search for the next move")
+@StackTrace(false)
+class SearchEvent extends Event {
+
+    @Label("Depth")
+    @Description("Deepest search that decided the move")
+    int depth;
+
+    @Label("Direction")
+    String direction;
+
+    @Label("Book")
+    @Description("Move taken from the move book without a search")
+    boolean book;
+
+    @Label("Nodes")
+    @Description("Expanded chance and move nodes")
+    long nodes;
+
+    @Label("Leaves")
+    long leaves;
+
+    @Label("Table Hits")
+    long tableHits;
+
+    @Label("Up Score")
+    double upScore;
+
+    @Label("Right Score")
+    double rightScore;
+
+    @Label("Down Score")
+    double downScore;
+
+    @Label("Left Score")
+    double leftScore;
+}
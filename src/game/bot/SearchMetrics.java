@@ -0,0 +1,102 @@
+package game.bot;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stats of the last {@link #getCapacity()} moves decided by any solver, the oldest ones get overwritten.
+ */
+public class SearchMetrics {
+
+    private final SearchStats[] recent;
+    private int next;
+    private int size;
+    private long moves;
+
+    public SearchMetrics(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity has to be positive: " + capacity);
+        this.recent = new SearchStats[capacity];
+    }
+
+    public synchronized void record(SearchStats stats) {
+        recent[next] = stats;
+        next = (next + 1) % recent.length;
+        size = Math.min(size + 1, recent.length);
+        moves++;
+    }
+
+    /**
+     * @return stats of the remembered moves, oldest first
+     */
+    public synchronized List<SearchStats> getRecent() {
+        List<SearchStats> stats = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            stats.add(recent[(next - size + i + recent.length) % recent.length]);
+        return stats;
+    }
+
+    /**
+     * @return null if no move was recorded yet
+     */
+    public synchronized SearchStats getLast() {
+        return size == 0 ? null : recent[(next - 1 + recent.length) % recent.length];
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return wall time in milliseconds that this share of the remembered moves didn't exceed, 0 without moves
+     */
+    public double getLatencyPercentile(double percentile) {
+        long[] latencies = latencies();
+        if (latencies.length == 0)
+            return 0;
+        Arrays.sort(latencies);
+        int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+        return latencies[Math.max(0, Math.min(latencies.length - 1, index))] / 1e6;
+    }
+
+    public double getMaxLatency() {
+        return getLatencyPercentile(100);
+    }
+
+    /**
+     * @return moves recorded since the start, including the overwritten ones
+     */
+    public synchronized long getMoves() {
+        return moves;
+    }
+
+    public int getCapacity() {
+        return recent.length;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(recent, null);
+        next = 0;
+        size = 0;
+        moves = 0;
+    }
+
+    /**
+     * Writes one line per remembered move, oldest first, below a {@link SearchStats#CSV_HEADER} line.
+     */
+    public void writeCsv(File file) throws FileNotFoundException {
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println(SearchStats.CSV_HEADER);
+            for (SearchStats stats : getRecent())
+                writer.println(stats.toCsv());
+        }
+    }
+
+    private synchronized long[] latencies() {
+        long[] latencies = new long[size];
+        for (int i = 0; i < size; i++)
+            latencies[i] = recent[i].getWallTimeNanos();
+        return latencies;
+    }
+}
@@ -0,0 +1,59 @@
+package game.bot;
+
+import game.Direction;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared by the tasks of one search: the work they did, counted from every thread of the solver pool, whether
+ * the search was given up and, if it prunes, the order moves are tried in.
+ * The order follows how often each move was the best one so far, weighted by the depth searched below it, so the
+ * move that's likely best is searched first and raises the bound the others have to beat.
+ */
+class SearchState {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    final LongAdder nodes = new LongAdder();
+    final LongAdder leaves = new LongAdder();
+    final LongAdder chanceNodes = new LongAdder();
+    final LongAdder tableHits = new LongAdder();
+    final boolean pruning;
+    volatile boolean cancelled;
+    private final AtomicLongArray history = new AtomicLongArray(DIRECTIONS.length);
+    private volatile Direction[] moveOrder = DIRECTIONS;
+
+    SearchState() {
+        this(true);
+    }
+
+    /**
+     * @param pruning false to search every move in a fixed order, like plain expectimax
+     */
+    SearchState(boolean pruning) {
+        this.pruning = pruning;
+    }
+
+    /**
+     * @return every direction, the most promising one first, must not be changed
+     */
+    Direction[] getMoveOrder() {
+        return moveOrder;
+    }
+
+    void recordBestMove(Direction direction, int depth) {
+        long count = history.addAndGet(direction.ordinal(), (long) depth * depth);
+        Direction[] order = moveOrder;
+        int index = 0;
+        while (order[index] != direction)
+            index++;
+        // a move overtaking the one before it moves up one place, threads racing here lose an update at worst
+        if (index > 0 && history.get(order[index - 1].ordinal()) < count) {
+            Direction[] newOrder = order.clone();
+            newOrder[index] = order[index - 1];
+            newOrder[index - 1] = direction;
+            moveOrder = newOrder;
+        }
+    }
+}
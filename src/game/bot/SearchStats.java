@@ -0,0 +1,96 @@
+package game.bot;
+
+import game.Direction;
+
+import java.util.Locale;
+
+/**
+ * What the solver did to decide one move.
+ */
+public final class SearchStats {
+
+    public static final String CSV_HEADER = "move,depth,nodes,leaves,chanceNodes,tableHits,tableHitRate,wallTimeMs,nodesPerSecond";
+
+    private final Direction move;
+    private final int depth;
+    private final long nodes;
+    private final long leaves;
+    private final long chanceNodes;
+    private final long tableHits;
+    private final long wallTimeNanos;
+
+    /**
+     * @param depth deepest search that decided the move
+     * @param nodes expanded chance and move nodes
+     */
+    public SearchStats(Direction move, int depth, long nodes, long leaves, long chanceNodes, long tableHits,
+                       long wallTimeNanos) {
+        this.move = move;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.leaves = leaves;
+        this.chanceNodes = chanceNodes;
+        this.tableHits = tableHits;
+        this.wallTimeNanos = wallTimeNanos;
+    }
+
+    public Direction getMove() {
+        return move;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getLeaves() {
+        return leaves;
+    }
+
+    public long getChanceNodes() {
+        return chanceNodes;
+    }
+
+    public long getTableHits() {
+        return tableHits;
+    }
+
+    /**
+     * @return share of the chance nodes looked up in the transposition table that were found there, every other one
+     * was expanded
+     */
+    public double getTableHitRate() {
+        long probes = tableHits + chanceNodes;
+        return probes == 0 ? 0 : (double) tableHits / probes;
+    }
+
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    public double getWallTimeMillis() {
+        return wallTimeNanos / 1e6;
+    }
+
+    /**
+     * @return expanded and evaluated nodes per second of wall time
+     */
+    public double getNodesPerSecond() {
+        return wallTimeNanos == 0 ? 0 : (nodes + leaves) * 1e9 / wallTimeNanos;
+    }
+
+    public String toCsv() {
+        return String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%d,%.4f,%.3f,%.0f", move, depth, nodes, leaves,
+                chanceNodes, tableHits, getTableHitRate(), getWallTimeMillis(), getNodesPerSecond());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s depth %d: %d nodes, %d leaves, %d chance nodes, %d table hits (%.1f%%), %.1f ms, "
+                        + "%.0f nodes/s", move, depth, nodes, leaves, chanceNodes, tableHits, getTableHitRate() * 100,
+                getWallTimeMillis(), getNodesPerSecond());
+    }
+}
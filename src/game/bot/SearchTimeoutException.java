@@ -0,0 +1,12 @@
+package game.bot;
+
+/**
+ * Thrown by search tasks that pass their deadline, the unfinished search has no result.
+ */
+public class SearchTimeoutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public SearchTimeoutException() {
+        super(null, null, false, false);
+    }
+}
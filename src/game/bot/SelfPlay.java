@@ -0,0 +1,224 @@
+package game.bot;
+
+import game.Direction;
+import game.GameIO;
+import game.Heuristic;
+import game.TileGrid;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays complete games with the bot without the UI and reports how fast and how well it plays.
+ * Usage: SelfPlay [-games n] [-depth d] [-time ms] [-seed s] [-threads t] [-weights file] [-rows r] [-cols c]
+ * [-book file] [-cache file] [-pruning true|false] [-engine expectimax|monte_carlo] [-rollouts n]
+ * With -time every move searches as deep as it gets in the given milliseconds (up to -depth if it's given too),
+ * otherwise every move is searched to -depth. Game i is played with the random seed s + i.
+ * -weights loads the heuristic weights from a file written by {@link WeightTuner}. -rows and -cols set the grid size,
+ * 4x4 by default. -book takes the moves of the positions in a {@link MoveBook} from the book.
+ * -cache keeps the search results in an {@link EvaluationCache} file, made if it doesn't exist, that later runs and
+ * other processes reuse. -pruning false searches every move like plain expectimax, to compare against.
+ * -engine monte_carlo takes the moves from a {@link MonteCarloSolver} instead, which plays up to -rollouts rollouts per
+ * move, {@value MonteCarloSolver#DEFAULT_ROLLOUTS} by default, or as many as fit into -time. Its rollouts of move m of
+ * game i are seeded with (s + i) * {@value #MOVE_SEEDS} + m.
+ */
+public class SelfPlay {
+
+    private static final int[] REPORTED_TILES = {2048, 4096, 8192, 16384, 32768};
+    private static final long MOVE_SEEDS = 1_000_003;
+
+    private int games = 100;
+    private int depth = 2;
+    private long maxMoveTime = GameSolver.NO_TIME_LIMIT;
+    private long seed = 0;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Heuristic heuristic = Heuristic.DEFAULT;
+    private int nRows = 4;
+    private int nCols = 4;
+    private File evaluationCache;
+    private Engine engine = Engine.EXPECTIMAX;
+    private int rollouts = MonteCarloSolver.DEFAULT_ROLLOUTS;
+    private boolean rolloutsGiven;
+
+    public static void main(String[] args) throws ExecutionException, InterruptedException, IOException {
+        SelfPlay selfPlay = new SelfPlay();
+        boolean depthGiven = false;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-games":
+                    selfPlay.games = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-depth":
+                    selfPlay.depth = Integer.parseInt(args[i + 1]);
+                    depthGiven = true;
+                    break;
+                case "-time":
+                    selfPlay.maxMoveTime = Long.parseLong(args[i + 1]);
+                    break;
+                case "-seed":
+                    selfPlay.seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "-threads":
+                    selfPlay.threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-weights":
+                    selfPlay.heuristic = GameIO.loadWeights(new File(args[i + 1]));
+                    break;
+                case "-rows":
+                    selfPlay.nRows = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-cols":
+                    selfPlay.nCols = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-book":
+                    GameSolver.setMoveBook(MoveBook.open(new File(args[i + 1])));
+                    break;
+                case "-cache":
+                    selfPlay.evaluationCache = new File(args[i + 1]);
+                    break;
+                case "-pruning":
+                    GameSolver.setPruning(Boolean.parseBoolean(args[i + 1]));
+                    break;
+                case "-engine":
+                    selfPlay.engine = Engine.valueOf(args[i + 1].toUpperCase());
+                    break;
+                case "-rollouts":
+                    selfPlay.rollouts = Integer.parseInt(args[i + 1]);
+                    selfPlay.rolloutsGiven = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (selfPlay.maxMoveTime != GameSolver.NO_TIME_LIMIT && !depthGiven)
+            selfPlay.depth = GameSolver.MAX_DEPTH;
+        if (selfPlay.maxMoveTime != GameSolver.NO_TIME_LIMIT && !selfPlay.rolloutsGiven)
+            selfPlay.rollouts = MonteCarloSolver.NO_ROLLOUT_LIMIT;
+        // opened once all options are known, the cache is made for the grid size and the weights
+        if (selfPlay.evaluationCache != null)
+            GameSolver.setEvaluationCache(EvaluationCache.open(selfPlay.evaluationCache, selfPlay.nRows,
+                    selfPlay.nCols, EvaluationCache.DEFAULT_SIZE_BITS, selfPlay.heuristic));
+        selfPlay.run();
+    }
+
+    private void run() throws ExecutionException, InterruptedException {
+        System.out.printf("Playing %d games of %dx%d on %d threads, %s, max move time %s%n", games, nRows, nCols,
+                threads, engine == Engine.EXPECTIMAX ? "depth " + depth
+                        : rollouts == MonteCarloSolver.NO_ROLLOUT_LIMIT ? "rollouts per move" : rollouts + " rollouts per move",
+                maxMoveTime == GameSolver.NO_TIME_LIMIT ? "none" : maxMoveTime + " ms");
+        if (engine == Engine.EXPECTIMAX)
+            System.out.println("Weights: " + heuristic);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<GameResult>> futureResults = new ArrayList<>();
+        for (int i = 0; i < games; i++) {
+            long gameSeed = seed + i;
+            futureResults.add(executor.submit(() -> engine == Engine.EXPECTIMAX
+                    ? playGame(gameSeed, nRows, nCols, depth, maxMoveTime, heuristic, null)
+                    : playMonteCarloGame(gameSeed, nRows, nCols, rollouts, maxMoveTime)));
+        }
+        List<GameResult> results = new ArrayList<>();
+        for (Future<GameResult> result : futureResults)
+            results.add(result.get());
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+        report(results, seconds);
+    }
+
+    /**
+     * Plays a 4x4 game.
+     * @param transpositionTable null to use the solver's shared table
+     */
+    static GameResult playGame(long gameSeed, int depth, long maxMoveTime, Heuristic heuristic,
+                               TranspositionTable transpositionTable)
+            throws ExecutionException, InterruptedException {
+        return playGame(gameSeed, 4, 4, depth, maxMoveTime, heuristic, transpositionTable);
+    }
+
+    static GameResult playGame(long gameSeed, int nRows, int nCols, int depth, long maxMoveTime, Heuristic heuristic,
+                               TranspositionTable transpositionTable)
+            throws ExecutionException, InterruptedException {
+        return playGame(gameSeed, nRows, nCols, (grid, move) -> (transpositionTable == null
+                ? new GameSolver(grid, depth, maxMoveTime, heuristic)
+                : new GameSolver(grid, depth, maxMoveTime, heuristic, transpositionTable)).nexMove());
+    }
+
+    static GameResult playMonteCarloGame(long gameSeed, int nRows, int nCols, int rollouts, long maxMoveTime)
+            throws ExecutionException, InterruptedException {
+        return playGame(gameSeed, nRows, nCols, (grid, move) -> new MonteCarloSolver(grid, maxMoveTime, null,
+                rollouts, gameSeed * MOVE_SEEDS + move).nexMove());
+    }
+
+    private static GameResult playGame(long gameSeed, int nRows, int nCols, Bot bot)
+            throws ExecutionException, InterruptedException {
+        TileGrid grid = new TileGrid(nRows, nCols, new Random(gameSeed));
+        long[] moveTimes = new long[1024];
+        int moves = 0;
+        while (!grid.gameIsOver()) {
+            long moveStart = System.nanoTime();
+            Direction direction = bot.nextMove(grid.copy(), moves);
+            if (moves == moveTimes.length)
+                moveTimes = Arrays.copyOf(moveTimes, moves * 2);
+            moveTimes[moves++] = System.nanoTime() - moveStart;
+            if (!grid.move(direction))
+                break;
+            grid.addTileRandomly();
+        }
+        return new GameResult(grid.getMaxSquare(), grid.getTileSum(), Arrays.copyOf(moveTimes, moves));
+    }
+
+    private void report(List<GameResult> results, double seconds) {
+        Map<Integer, Integer> maxTiles = new TreeMap<>();
+        long[] moveTimes = results.stream().flatMapToLong(result -> Arrays.stream(result.moveTimes)).toArray();
+        Arrays.sort(moveTimes);
+        for (GameResult result : results)
+            maxTiles.merge(result.maxTile, 1, Integer::sum);
+
+        System.out.printf("%.2f games/s, %.1f moves/s (%d moves in %.1f s)%n", results.size() / seconds,
+                moveTimes.length / seconds, moveTimes.length, seconds);
+        System.out.println("Max tile: " + maxTiles);
+        for (int tile : REPORTED_TILES) {
+            long reached = results.stream().filter(result -> result.maxTile >= tile).count();
+            System.out.printf("  reached %5d: %5.1f%%%n", tile, 100.0 * reached / results.size());
+        }
+        System.out.printf("Move time (ms): p50 %.2f, p90 %.2f, p99 %.2f, max %.2f%n", percentile(moveTimes, 0.5),
+                percentile(moveTimes, 0.9), percentile(moveTimes, 0.99), percentile(moveTimes, 1));
+    }
+
+    private static double percentile(long[] sortedTimes, double percentile) {
+        if (sortedTimes.length == 0)
+            return 0;
+        int index = (int) Math.ceil(percentile * sortedTimes.length) - 1;
+        return sortedTimes[Math.max(index, 0)] / 1e6;
+    }
+
+    private interface Bot {
+        /**
+         * @param grid copy of the game's grid
+         * @param move number of moves made so far
+         */
+        Direction nextMove(TileGrid grid, int move) throws ExecutionException, InterruptedException;
+    }
+
+    static class GameResult {
+        final int maxTile;
+        final int tileSum;
+        final long[] moveTimes;
+
+        GameResult(int maxTile, int tileSum, long[] moveTimes) {
+            this.maxTile = maxTile;
+            this.tileSum = tileSum;
+            this.moveTimes = moveTimes;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package game.bot;
+
+/**
+ * Fixed size cache of search results keyed by {@link game.TileGrid#getCanonicalKey(game.Symmetry[])}, shared by all
+ * search threads without locking. Keys of grids with more than 16 tiles are hashes, a collision passes for a hit.
+ * Every slot stores its data, its score at full precision and the key xor'ed with both, so a slot torn by two threads
+ * writing at the same time doesn't verify and is read as a miss. Slots are grouped in buckets of {@value #BUCKET_SIZE};
+ * when a bucket is full the entry of an older search, or else the shallowest one, gets replaced.
+ * Besides exact scores the table holds upper bounds of pruned grids, a bound is only a hit for a search of the same
+ * depth that needs to beat more than the bound. Any entry replaces a bound of the same grid, a bound never replaces an
+ * exact score of at least its depth.
+ * An {@link EvaluationCache} can back the table: misses are looked up there and results searched at least
+ * {@value #PERSISTED_DEPTH} deep are written through to it, bounds aren't.
+ */
+public class TranspositionTable {
+
+    private static final int BUCKET_SIZE = 4;
+    private static final long DEPTH_MASK = 0xFF;
+    private static final long UPPER_BOUND = 1L << 16;
+    private static final int PERSISTED_DEPTH = 2;
+
+    private final int nRows;
+    private final int nCols;
+    private final long[] checks;
+    private final long[] data;
+    private final long[] scores;
+    private final int bucketMask;
+    private final EvaluationCache evaluationCache;
+    private volatile int generation;
+
+    /**
+     * @param nRows rows of the grids that get cached, boards of different sizes can't share a table
+     * @param nCols columns of the grids that get cached
+     * @param sizeBits the table holds 2^sizeBits entries
+     */
+    public TranspositionTable(int nRows, int nCols, int sizeBits) {
+        this(nRows, nCols, sizeBits, null);
+    }
+
+    /**
+     * @param evaluationCache null if the results don't outlive the table
+     */
+    public TranspositionTable(int nRows, int nCols, int sizeBits, EvaluationCache evaluationCache) {
+        this.nRows = nRows;
+        this.nCols = nCols;
+        checks = new long[1 << sizeBits];
+        data = new long[1 << sizeBits];
+        scores = new long[1 << sizeBits];
+        bucketMask = (checks.length / BUCKET_SIZE) - 1;
+        this.evaluationCache = evaluationCache;
+    }
+
+    /**
+     * Marks all following entries as newer than the stored ones, call once per searched move.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & 0xFF;
+    }
+
+    /**
+     * @return the stored score of the board searched to at least the given depth or NaN
+     */
+    public double probe(long board, int depth) {
+        return probe(board, depth, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param alpha score the board has to beat, a stored upper bound is returned if it doesn't
+     * @return the stored score of the board searched to at least the given depth, an upper bound of at most alpha
+     * searched to exactly the given depth or NaN
+     */
+    public double probe(long board, int depth, double alpha) {
+        int start = bucketStart(board);
+        for (int slot = start; slot < start + BUCKET_SIZE; slot++) {
+            long entry = data[slot];
+            long scoreBits = scores[slot];
+            if ((checks[slot] ^ entry ^ scoreBits) == board && (entry & DEPTH_MASK) >= depth) {
+                double score = Double.longBitsToDouble(scoreBits);
+                if ((entry & UPPER_BOUND) != 0 && !((entry & DEPTH_MASK) == depth && score <= alpha))
+                    break; // the grid could have an exact score in the cache
+                return score;
+            }
+        }
+        if (evaluationCache == null || depth < PERSISTED_DEPTH)
+            return Double.NaN;
+        double score = evaluationCache.probe(board, depth);
+        if (!Double.isNaN(score))
+            storeInTable(board, depth, score);
+        return score;
+    }
+
+    public void store(long board, int depth, double score) {
+        storeInTable(board, depth, score, 0);
+        if (evaluationCache != null && depth >= PERSISTED_DEPTH)
+            evaluationCache.store(board, depth, score);
+    }
+
+    /**
+     * @param bound the board's score searched to the given depth is at most this
+     */
+    public void storeUpperBound(long board, int depth, double bound) {
+        storeInTable(board, depth, bound, UPPER_BOUND);
+    }
+
+    private void storeInTable(long board, int depth, double score) {
+        storeInTable(board, depth, score, 0);
+    }
+
+    private void storeInTable(long board, int depth, double score, long flags) {
+        int start = bucketStart(board);
+        int victim = start;
+        int victimPriority = Integer.MAX_VALUE;
+        for (int slot = start; slot < start + BUCKET_SIZE; slot++) {
+            long entry = data[slot];
+            if ((checks[slot] ^ entry ^ scores[slot]) == board) {
+                if ((entry & UPPER_BOUND) == 0 && (flags != 0 ? (entry & DEPTH_MASK) >= depth : (entry & DEPTH_MASK) > depth))
+                    return;
+                victim = slot;
+                break;
+            }
+            int priority = priority(entry);
+            if (priority < victimPriority) {
+                victim = slot;
+                victimPriority = priority;
+            }
+        }
+        long entry = flags | (long) generation << 8 | depth;
+        long scoreBits = Double.doubleToRawLongBits(score);
+        data[victim] = entry;
+        scores[victim] = scoreBits;
+        checks[victim] = board ^ entry ^ scoreBits;
+    }
+
+    // empty slots first, then entries of older searches, then shallow ones
+    private int priority(long entry) {
+        int depth = (int) (entry & DEPTH_MASK);
+        if (depth == 0)
+            return -1;
+        boolean current = ((entry >>> 8) & 0xFF) == generation;
+        return (current ? 256 : 0) + depth;
+    }
+
+    private int bucketStart(long board) {
+        long hash = board * 0x9E3779B97F4A7C15L;
+        return ((int) (hash >>> 32) & bucketMask) * BUCKET_SIZE;
+    }
+
+    public boolean fits(int nRows, int nCols) {
+        return this.nRows == nRows && this.nCols == nCols;
+    }
+
+    public EvaluationCache getEvaluationCache() {
+        return evaluationCache;
+    }
+}
@@ -0,0 +1,204 @@
+package game.bot;
+
+import game.GameIO;
+import game.Heuristic;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Tunes the {@link Heuristic} weights with the cross-entropy method: every generation samples candidate weights
+ * from a normal distribution per weight, lets each candidate play the same seeded self-play games and moves the
+ * distribution to the candidates with the highest average tile sum. All games of a generation are played in
+ * parallel. The distribution is saved to the checkpoint after every generation and a run with the same checkpoint
+ * continues from there. The mean of the distribution is the tuned result and gets written as weights file that
+ * {@link GameIO#loadWeights(File)} reads.
+ * Usage: WeightTuner [-generations n] [-population n] [-elite n] [-games n] [-depth d] [-seed s] [-threads t]
+ * [-checkpoint file] [-out file]
+ */
+public class WeightTuner {
+
+    private static final double MIN_SIGMA = 0.05;
+    // added to the elite variance so the search doesn't settle after a few lucky generations, shrinks over time
+    private static final double EXTRA_VARIANCE = 0.25;
+    private static final int TRANSPOSITION_TABLE_SIZE_BITS = 16;
+
+    private int generations = 50;
+    private int population = 16;
+    private int elite = 4;
+    private int games = 16;
+    private int depth = 1;
+    private long seed = 0;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private File checkpoint = new File("src/data/weightTuner.checkpoint");
+    private File out = new File("src/data/heuristicWeights.csv");
+
+    private int generation;
+    private double[] mean;
+    private double[] sigma;
+
+    public static void main(String[] args) throws IOException, ExecutionException, InterruptedException {
+        WeightTuner tuner = new WeightTuner();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-generations":
+                    tuner.generations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-population":
+                    tuner.population = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-elite":
+                    tuner.elite = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-games":
+                    tuner.games = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-depth":
+                    tuner.depth = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-seed":
+                    tuner.seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "-threads":
+                    tuner.threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-checkpoint":
+                    tuner.checkpoint = new File(args[i + 1]);
+                    break;
+                case "-out":
+                    tuner.out = new File(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        tuner.run();
+    }
+
+    private void run() throws IOException, ExecutionException, InterruptedException {
+        if (checkpoint.exists()) {
+            loadCheckpoint();
+            System.out.println("Continuing from generation " + generation);
+        } else {
+            mean = Heuristic.DEFAULT.getWeights();
+            sigma = new double[mean.length];
+            Arrays.fill(sigma, 1);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (; generation < generations; generation++) {
+                long start = System.nanoTime();
+                Random random = new Random(seed + generation);
+                List<double[]> candidates = new ArrayList<>();
+                for (int i = 0; i < population; i++)
+                    candidates.add(sample(random));
+                double[] fitness = evaluate(executor, candidates, seed + (long) generation * games);
+
+                Integer[] ranking = new Integer[population];
+                Arrays.setAll(ranking, i -> i);
+                Arrays.sort(ranking, Comparator.comparingDouble(i -> -fitness[i]));
+                updateDistribution(candidates, ranking);
+
+                System.out.printf("Generation %d (%.1f s): best %.1f, elite mean %.1f%n  mean  %s%n  sigma %s%n",
+                        generation, (System.nanoTime() - start) / 1e9, fitness[ranking[0]],
+                        Arrays.stream(ranking, 0, elite).mapToDouble(i -> fitness[i]).average().orElse(0),
+                        format(mean), format(sigma));
+                saveCheckpoint(generation + 1);
+                GameIO.saveWeights(new Heuristic(mean), out);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        System.out.println("Tuned weights written to " + out + ": " + new Heuristic(mean));
+    }
+
+    private double[] sample(Random random) {
+        double[] weights = new double[mean.length];
+        for (int i = 0; i < weights.length; i++)
+            weights[i] = Math.max(0, mean[i] + sigma[i] * random.nextGaussian());
+        return Arrays.stream(weights).sum() > 0 ? weights : mean.clone();
+    }
+
+    /**
+     * @return average tile sum at the end of the games for every candidate, all candidates play the same seeds
+     */
+    private double[] evaluate(ExecutorService executor, List<double[]> candidates, long firstSeed)
+            throws ExecutionException, InterruptedException {
+        List<List<Future<SelfPlay.GameResult>>> futureResults = new ArrayList<>();
+        for (double[] candidate : candidates) {
+            Heuristic heuristic = new Heuristic(candidate);
+            List<Future<SelfPlay.GameResult>> candidateResults = new ArrayList<>();
+            for (int i = 0; i < games; i++) {
+                long gameSeed = firstSeed + i;
+                candidateResults.add(executor.submit(() -> SelfPlay.playGame(gameSeed, depth,
+                        GameSolver.NO_TIME_LIMIT, heuristic, new TranspositionTable(4, 4,
+                                TRANSPOSITION_TABLE_SIZE_BITS))));
+            }
+            futureResults.add(candidateResults);
+        }
+        double[] fitness = new double[candidates.size()];
+        for (int candidate = 0; candidate < candidates.size(); candidate++) {
+            for (Future<SelfPlay.GameResult> result : futureResults.get(candidate))
+                fitness[candidate] += result.get().tileSum;
+            fitness[candidate] /= games;
+        }
+        return fitness;
+    }
+
+    private void updateDistribution(List<double[]> candidates, Integer[] ranking) {
+        for (int i = 0; i < mean.length; i++) {
+            double eliteMean = 0;
+            for (int rank = 0; rank < elite; rank++)
+                eliteMean += candidates.get(ranking[rank])[i] / elite;
+            double variance = 0;
+            for (int rank = 0; rank < elite; rank++)
+                variance += Math.pow(candidates.get(ranking[rank])[i] - eliteMean, 2) / elite;
+            mean[i] = eliteMean;
+            sigma[i] = Math.max(Math.sqrt(variance + EXTRA_VARIANCE / (generation + 1)), MIN_SIGMA);
+        }
+        // only the ratios between the weights matter, keep them at the scale of the default weights
+        double scale = Arrays.stream(Heuristic.DEFAULT.getWeights()).sum() / Arrays.stream(mean).sum();
+        for (int i = 0; i < mean.length; i++) {
+            mean[i] *= scale;
+            sigma[i] *= scale;
+        }
+    }
+
+    private void saveCheckpoint(int nextGeneration) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(checkpoint, false))) {
+            writer.println(nextGeneration);
+            writer.println(format(mean));
+            writer.println(format(sigma));
+        }
+    }
+
+    private void loadCheckpoint() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(checkpoint.toPath())) {
+            generation = Integer.parseInt(reader.readLine());
+            mean = parse(reader.readLine());
+            sigma = parse(reader.readLine());
+        }
+    }
+
+    private static String format(double[] values) {
+        return Arrays.stream(values).mapToObj(Double::toString).collect(Collectors.joining(","));
+    }
+
+    private static double[] parse(String line) {
+        return Arrays.stream(line.split(",")).mapToDouble(Double::parseDouble).toArray();
+    }
+}
@@ -1,6 +1,7 @@
 package game.bot;
 
 import game.Direction;
+import game.Heuristic;
 import game.TileGrid;
 
 import java.util.concurrent.Callable;
@@ -8,16 +9,58 @@ import java.util.concurrent.Callable;
 public class botMoveTask implements Callable<Direction> {
 
     private final TileGrid grid;
+    private final Engine engine;
     private final int depth;
+    private final long maxMoveTime;
+    private final Heuristic heuristic;
+    private final Ponderer ponderer;
+
     public botMoveTask(TileGrid grid, int depth){
+        this(grid, depth, GameSolver.NO_TIME_LIMIT);
+    }
+
+    public botMoveTask(TileGrid grid, int depth, long maxMoveTime){
+        this(grid, depth, maxMoveTime, Heuristic.DEFAULT);
+    }
+
+    public botMoveTask(TileGrid grid, int depth, long maxMoveTime, Heuristic heuristic){
+        this(grid, Engine.EXPECTIMAX, depth, maxMoveTime, heuristic);
+    }
+
+    /**
+     * @param depth search depth of {@link Engine#EXPECTIMAX}, the other engine doesn't search
+     * @param maxMoveTime milliseconds per move, {@link Engine#MONTE_CARLO} plays
+     *                    {@value MonteCarloSolver#DEFAULT_ROLLOUTS} rollouts without a time limit
+     * @param heuristic of {@link Engine#EXPECTIMAX}, the rollouts of the other engine are random
+     */
+    public botMoveTask(TileGrid grid, Engine engine, int depth, long maxMoveTime, Heuristic heuristic){
+        this.grid = grid;
+        this.engine = engine;
+        this.depth = depth;
+        this.maxMoveTime = maxMoveTime;
+        this.heuristic = heuristic;
+        this.ponderer = null;
+    }
+
+    /**
+     * @param ponderer takes the move from its pondered replies if it can
+     */
+    public botMoveTask(TileGrid grid, int depth, long maxMoveTime, Ponderer ponderer){
         this.grid = grid;
+        this.engine = Engine.EXPECTIMAX;
         this.depth = depth;
+        this.maxMoveTime = maxMoveTime;
+        this.heuristic = null;
+        this.ponderer = ponderer;
     }
 
     @Override
     public Direction call() throws Exception {
-        GameSolver gameSolver = new GameSolver(grid, depth);
+        if (engine == Engine.MONTE_CARLO)
+            return new MonteCarloSolver(grid, maxMoveTime).nexMove();
+        if (ponderer != null)
+            return ponderer.nextMove(grid, depth, maxMoveTime);
+        GameSolver gameSolver = new GameSolver(grid, depth, maxMoveTime, heuristic);
         return gameSolver.nexMove();
     }
 }
-